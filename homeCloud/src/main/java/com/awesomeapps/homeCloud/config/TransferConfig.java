@@ -0,0 +1,74 @@
+package com.awesomeapps.homeCloud.config;
+
+import com.awesomeapps.homeCloud.controller.ArchiveEntryServlet;
+import com.awesomeapps.homeCloud.controller.DownloadServlet;
+import com.awesomeapps.homeCloud.controller.IdleWatchdog;
+import com.awesomeapps.homeCloud.controller.UploadStreamServlet;
+import com.awesomeapps.homeCloud.service.ArchiveService;
+import com.awesomeapps.homeCloud.service.FileService;
+import com.awesomeapps.homeCloud.service.IntegrityService;
+import com.awesomeapps.homeCloud.service.StorageService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.servlet.ServletRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * Registers the servlets that move file contents with non-blocking I/O. Their exact mappings take precedence
+ * over the dispatcher servlet, the other endpoints stay in the controllers.
+ */
+@Configuration
+public class TransferConfig {
+
+    @Autowired
+    private FileService fileService;
+
+    @Autowired
+    private StorageService storageService;
+
+    @Autowired
+    private IntegrityService integrityService;
+
+    @Autowired
+    private ArchiveService archiveService;
+
+    @Value("${homeCloud.transfer.bufferSize}")
+    private int bufferSize;
+
+    @Value("${homeCloud.transfer.idleTimeout}")
+    private Duration idleTimeout;
+
+    @Bean(destroyMethod = "shutdown")
+    public IdleWatchdog transferWatchdog() {
+        return new IdleWatchdog(idleTimeout);
+    }
+
+    @Bean
+    public ServletRegistrationBean<DownloadServlet> downloadServlet() {
+        ServletRegistrationBean<DownloadServlet> registration = new ServletRegistrationBean<>(
+                new DownloadServlet(storageService, integrityService, bufferSize, transferWatchdog()), "/file/downloadAFile");
+        registration.setAsyncSupported(true);
+        return registration;
+    }
+
+    @Bean
+    public ServletRegistrationBean<UploadStreamServlet> uploadStreamServlet() {
+        ServletRegistrationBean<UploadStreamServlet> registration = new ServletRegistrationBean<>(
+                new UploadStreamServlet(fileService, storageService, integrityService, bufferSize, transferWatchdog()),
+                "/file/uploadStream");
+        registration.setAsyncSupported(true);
+        return registration;
+    }
+
+    @Bean
+    public ServletRegistrationBean<ArchiveEntryServlet> archiveEntryServlet() {
+        ServletRegistrationBean<ArchiveEntryServlet> registration = new ServletRegistrationBean<>(
+                new ArchiveEntryServlet(archiveService, storageService, bufferSize, transferWatchdog()),
+                "/archive/downloadEntry");
+        registration.setAsyncSupported(true);
+        return registration;
+    }
+}
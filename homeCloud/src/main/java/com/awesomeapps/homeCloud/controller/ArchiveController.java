@@ -0,0 +1,31 @@
+package com.awesomeapps.homeCloud.controller;
+
+import com.awesomeapps.homeCloud.models.ArchiveEntryDto;
+import com.awesomeapps.homeCloud.service.ArchiveService;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.util.List;
+
+@RequestMapping(value = "/archive")
+@RestController
+public class ArchiveController {
+
+    @Autowired
+    private ArchiveService archiveService;
+
+    /**
+     * Get the list of entries of the ZIP archive with <b>filePath</b>.
+     */
+    @GetMapping("/listEntries")
+    public ResponseEntity<List<ArchiveEntryDto>> listEntries(@RequestParam("filePath") @NotNull String filePath)
+            throws IOException {
+        return archiveService.listEntries(filePath);
+    }
+}
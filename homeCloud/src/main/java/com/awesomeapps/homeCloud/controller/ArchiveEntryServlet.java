@@ -0,0 +1,115 @@
+package com.awesomeapps.homeCloud.controller;
+
+import com.awesomeapps.homeCloud.service.ArchiveEntryDecoder;
+import com.awesomeapps.homeCloud.service.ArchiveService;
+import com.awesomeapps.homeCloud.service.StorageService;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Serves <i>GET /archive/downloadEntry?filePath=&amp;entryName=</i> with non-blocking I/O like
+ * {@link DownloadServlet}. The compressed data is read from an asynchronous file channel and decompressed
+ * whenever the client can take more, so a slow client holds no thread while it catches up.
+ */
+public class ArchiveEntryServlet extends HttpServlet {
+
+    private final ArchiveService archiveService;
+    private final StorageService storageService;
+    private final int bufferSize;
+    private final IdleWatchdog watchdog;
+
+    public ArchiveEntryServlet(ArchiveService archiveService, StorageService storageService, int bufferSize,
+                               IdleWatchdog watchdog) {
+        this.archiveService = archiveService;
+        this.storageService = storageService;
+        this.bufferSize = bufferSize;
+        this.watchdog = watchdog;
+    }
+
+    /**
+     * Download the decompressed contents of the entry <b>entryName</b> of the ZIP archive at <b>filePath</b>.
+     * <p>
+     * The status and Content-Length go out before the data is read, so a damaged entry cannot be answered with
+     * an error status. Its size and CRC-32 are checked before the last bytes are written instead, and on a
+     * mismatch the failure is logged and the connection dropped, leaving the client with a short body.
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String filePath = request.getParameter("filePath");
+        String entryName = request.getParameter("entryName");
+        if (filePath == null || entryName == null) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+
+        ResponseEntity<ArchiveEntryDecoder> entry = archiveService.openEntry(filePath, entryName);
+        ArchiveEntryDecoder decoder = entry.getBody();
+        if (decoder == null) {
+            response.sendError(entry.getStatusCode().value());
+            return;
+        }
+
+        AsynchronousFileChannel channel;
+        try {
+            channel = storageService.openAsyncChannel(decoder.getArchive(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            decoder.close();
+            throw e;
+        }
+
+        response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        response.setContentLengthLong(decoder.getSize());
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + decoder.getFileName() + "\"");
+        DownloadTransfer.start(request.startAsync(), channel, new EntrySource(decoder, bufferSize), bufferSize,
+                watchdog);
+    }
+
+    /**
+     * Sends the decompressed entry, as many buffers of it as every chunk of compressed data yields.
+     */
+    private static class EntrySource implements DownloadTransfer.Source {
+        private final ArchiveEntryDecoder decoder;
+        private final byte[] output;
+
+        EntrySource(ArchiveEntryDecoder decoder, int bufferSize) {
+            this.decoder = decoder;
+            this.output = new byte[bufferSize];
+        }
+
+        @Override
+        public long position() {
+            return decoder.getInputPosition();
+        }
+
+        @Override
+        public long remaining() {
+            return decoder.getInputRemaining();
+        }
+
+        @Override
+        public void accept(ByteBuffer chunk) {
+            decoder.feed(chunk);
+        }
+
+        @Override
+        public ByteBuffer next() throws IOException {
+            int count = decoder.decode(output);
+            if (count < 0) return null;
+            return count == 0 ? READ_MORE : ByteBuffer.wrap(output, 0, count);
+        }
+
+        @Override
+        public void close() {
+            decoder.close();
+        }
+    }
+}
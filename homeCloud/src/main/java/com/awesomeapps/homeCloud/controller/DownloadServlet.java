@@ -0,0 +1,115 @@
+package com.awesomeapps.homeCloud.controller;
+
+import com.awesomeapps.homeCloud.service.IntegrityService;
+import com.awesomeapps.homeCloud.service.StorageService;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Serves <i>GET /file/downloadAFile?filePath=</i> with non-blocking I/O. The request thread only sets up the
+ * transfer; chunks are read from an asynchronous file channel and written whenever the client can take more,
+ * so a slow client holds no thread while it catches up.
+ */
+public class DownloadServlet extends HttpServlet {
+
+    private final StorageService storageService;
+    private final IntegrityService integrityService;
+    private final int bufferSize;
+    private final IdleWatchdog watchdog;
+
+    public DownloadServlet(StorageService storageService, IntegrityService integrityService, int bufferSize,
+                           IdleWatchdog watchdog) {
+        this.storageService = storageService;
+        this.integrityService = integrityService;
+        this.bufferSize = bufferSize;
+        this.watchdog = watchdog;
+    }
+
+    /**
+     * Download a file with <b>filePath</b>.
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String filePath = request.getParameter("filePath");
+        if (filePath == null) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+
+        // Validate and sanitize the filePath to prevent directory traversal attacks
+        Path sanitizedPath = storageService.resolve(filePath);
+        if (sanitizedPath == null) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+        if (!Files.isRegularFile(sanitizedPath)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        long size = Files.size(sanitizedPath);
+
+        response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        response.setContentLengthLong(size);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + sanitizedPath.getFileName());
+        // The checksum was recorded at upload, so the digest costs no extra read of the file
+        integrityService.digestHeaders(integrityService.readChecksum(sanitizedPath))
+                .forEach((name, values) -> values.forEach(value -> response.addHeader(name, value)));
+
+        AsynchronousFileChannel channel = storageService.openAsyncChannel(sanitizedPath, StandardOpenOption.READ);
+        DownloadTransfer.start(request.startAsync(), channel, new FileSource(size), bufferSize, watchdog);
+    }
+
+    /**
+     * Sends the file as it is, each chunk as soon as it was read.
+     */
+    private static class FileSource implements DownloadTransfer.Source {
+        private final long size;
+        private long position;
+        private ByteBuffer chunk;
+
+        FileSource(long size) {
+            this.size = size;
+        }
+
+        @Override
+        public long position() {
+            return position;
+        }
+
+        @Override
+        public long remaining() {
+            return size - position;
+        }
+
+        @Override
+        public void accept(ByteBuffer chunk) {
+            this.chunk = chunk;
+            position += chunk.remaining();
+        }
+
+        @Override
+        public ByteBuffer next() {
+            if (chunk != null) {
+                ByteBuffer next = chunk;
+                chunk = null;
+                return next;
+            }
+            return position < size ? READ_MORE : null;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
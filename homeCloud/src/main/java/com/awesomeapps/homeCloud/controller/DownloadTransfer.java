@@ -0,0 +1,224 @@
+package com.awesomeapps.homeCloud.controller;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import org.apache.catalina.core.AsyncContextImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+
+/**
+ * Moves one download to one client with non-blocking I/O. Reads complete on the volume I/O pool and writes are
+ * triggered by the container, both go through {@link #pump()} which keeps at most one read in flight. Where the
+ * file is read and what the chunks turn into is up to the {@link Source}.
+ */
+class DownloadTransfer implements WriteListener, AsyncListener, CompletionHandler<Integer, Void> {
+
+    private static final Logger logger = LoggerFactory.getLogger(DownloadTransfer.class);
+
+    /**
+     * What a download sends. The file is read in chunks where the source asks for them, and every chunk may turn
+     * into any number of bytes to send.
+     */
+    interface Source extends Closeable {
+        ByteBuffer READ_MORE = ByteBuffer.allocate(0);
+
+        /**
+         * Position in the file of the next chunk to read.
+         */
+        long position();
+
+        /**
+         * Number of bytes left to read from {@link #position()}.
+         */
+        long remaining();
+
+        /**
+         * Take a chunk read at {@link #position()}, it stays in use until {@link #next()} asks for another one.
+         */
+        void accept(ByteBuffer chunk);
+
+        /**
+         * Get the next bytes to send, {@link #READ_MORE} if a chunk must be read first, or null once everything
+         * was sent. The bytes are written before this is called again.
+         */
+        ByteBuffer next() throws IOException;
+    }
+
+    private final AsyncContext context;
+    private final AsynchronousFileChannel channel;
+    private final Source source;
+    private final ServletOutputStream out;
+    private final ByteBuffer buffer;
+    private long sent;
+    private boolean reading;
+    private boolean done;
+    private final IdleWatchdog.Watch watch;
+
+    private DownloadTransfer(AsyncContext context, AsynchronousFileChannel channel, Source source, int bufferSize,
+                             IdleWatchdog watchdog) throws IOException {
+        this.context = context;
+        this.channel = channel;
+        this.source = source;
+        this.out = context.getResponse().getOutputStream();
+        this.buffer = ByteBuffer.allocate(bufferSize);
+        this.watch = watchdog.watch(() -> abort(new IOException("Download stalled after " + sent + " bytes")));
+    }
+
+    /**
+     * Send what <b>source</b> makes of <b>channel</b> as the response of the started <b>context</b>. The
+     * transfer closes the channel and the source once it ends.
+     */
+    static void start(AsyncContext context, AsynchronousFileChannel channel, Source source, int bufferSize,
+                      IdleWatchdog watchdog) throws IOException {
+        // No limit on the whole transfer, the watchdog ends it once it stops moving
+        context.setTimeout(0);
+        DownloadTransfer transfer = new DownloadTransfer(context, channel, source, bufferSize, watchdog);
+        context.addListener(transfer);
+        context.getResponse().getOutputStream().setWriteListener(transfer);
+    }
+
+    @Override
+    public void onWritePossible() {
+        pump();
+    }
+
+    private synchronized void pump() {
+        while (!done && !reading) {
+            ByteBuffer next;
+            try {
+                if (!out.isReady()) return;
+                next = source.next();
+            } catch (IOException e) {
+                abort(e);
+                return;
+            }
+
+            if (next == null) {
+                finish();
+            } else if (next.hasRemaining()) {
+                try {
+                    out.write(next.array(), next.arrayOffset() + next.position(), next.remaining());
+                } catch (IOException e) {
+                    fail(e);
+                    return;
+                }
+                sent += next.remaining();
+                watch.touch();
+            } else if (source.remaining() <= 0) {
+                abort(new IOException("Unexpected end of data after " + sent + " bytes"));
+            } else {
+                // Never read past what the source wants, even if the file grew since
+                buffer.clear().limit((int) Math.min(buffer.capacity(), source.remaining()));
+                reading = true;
+                channel.read(buffer, source.position(), null, this);
+            }
+        }
+    }
+
+    @Override
+    public void completed(Integer read, Void attachment) {
+        synchronized (this) {
+            reading = false;
+            if (done) return;
+            if (read < 0) {
+                // The file was truncated while it was being sent
+                abort(new IOException("Unexpected end of file after " + sent + " bytes"));
+                return;
+            }
+            watch.touch();
+            buffer.flip();
+            source.accept(buffer);
+        }
+        pump();
+    }
+
+    @Override
+    public void failed(Throwable throwable, Void attachment) {
+        synchronized (this) {
+            reading = false;
+        }
+        abort(throwable);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        fail(throwable);
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+        close();
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+        fail(new IOException("Download timed out after " + sent + " bytes"));
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+        fail(event.getThrowable());
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+    }
+
+    private synchronized void finish() {
+        if (done) return;
+        done = true;
+        close();
+        context.complete();
+    }
+
+    /**
+     * End a transfer the container reported an error for, usually a client that went away.
+     */
+    private synchronized void fail(Throwable throwable) {
+        if (done) return;
+        done = true;
+        logger.debug("Download failed: {}", throwable == null ? "unknown error" : throwable.getMessage());
+        close();
+        context.complete();
+    }
+
+    /**
+     * End a transfer that failed on this side. Completing alone would leave a keep-alive connection behind a body
+     * shorter than its Content-Length and the client would wait for the rest, so the connection is dropped:
+     * Tomcat handles an error on a committed response by closing it, and completes the request itself.
+     */
+    private synchronized void abort(Throwable throwable) {
+        if (done) return;
+        done = true;
+        logger.warn("Download aborted after {} bytes: {}", sent, throwable.getMessage());
+        close();
+        if (context instanceof AsyncContextImpl tomcat) {
+            tomcat.setErrorState(throwable, false);
+        } else {
+            context.complete();
+        }
+    }
+
+    private synchronized void close() {
+        watch.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.warn("Could not close the downloaded file: {}", e.getMessage());
+        }
+        try {
+            source.close();
+        } catch (IOException e) {
+            logger.warn("Could not close the download source: {}", e.getMessage());
+        }
+    }
+}
@@ -2,10 +2,12 @@ package com.awesomeapps.homeCloud.controller;
 
 import com.awesomeapps.homeCloud.models.FileDto;
 import com.awesomeapps.homeCloud.service.FileService;
+import com.awesomeapps.homeCloud.utils.FileListingEncoder;
 import org.jetbrains.annotations.NotNull;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.InputStreamResource;
 import org.springframework.core.io.Resource;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
@@ -31,15 +33,40 @@ public class FileController {
     }
 
     /**
-     * Get the list of files at location <b>storagePath</b>.
+     * Get the list of files at location <b>storagePath</b>, with the dates as epoch milliseconds in
+     * <i>creationTimestamp</i> when <b>epochTimestamps</b> is set.
+     */
+    @GetMapping(value = "/listFiles", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<List<FileDto>> listFiles(@RequestParam("storagePath") String storagePath,
+                                                   @RequestParam(value = "epochTimestamps", defaultValue = "false")
+                                                   boolean epochTimestamps)
+            throws IOException {
+        return fileService.listFiles(storagePath, epochTimestamps);
+    }
+
+    /**
+     * Get the list of files at location <b>storagePath</b> in the compact binary format, for clients that accept
+     * <i>application/vnd.homecloud.listing</i>. Names are sorted and prefix compressed with
+     * <b>prefixCompression</b>.
      */
-    @GetMapping("/listFiles")
-    public ResponseEntity<List<FileDto>> listFiles(@RequestParam("storagePath") String storagePath)
+    @GetMapping(value = "/listFiles", produces = FileListingEncoder.MEDIA_TYPE)
+    public ResponseEntity<byte[]> listFilesBinary(@RequestParam("storagePath") String storagePath,
+                                                  @RequestParam(value = "prefixCompression", defaultValue = "false")
+                                                  boolean prefixCompression)
             throws IOException {
-        return fileService.listFiles(storagePath);
+        return fileService.listFilesBinary(storagePath, prefixCompression);
     }
 
 
+    /**
+     * Search the contents of text files for all the words in <b>query</b> and get the paths of the matches.
+     */
+    @GetMapping("/searchContent")
+    public ResponseEntity<List<String>> searchContent(@RequestParam("query") @NotNull String query,
+                                                      @RequestParam(value = "limit", defaultValue = "50") int limit) {
+        return fileService.searchContent(query, limit);
+    }
+
     /**
      * Get the list of files at location <b>storagePath</b>.
      */
@@ -50,15 +77,6 @@ public class FileController {
         return fileService.getFile(fileName, storagePath);
     }
 
-    /**
-     * Download a file with <b>filePath</b>.
-     */
-    @GetMapping("/downloadAFile")
-    public ResponseEntity<InputStreamResource> downloadFile(@RequestParam("filePath") @NotNull String filePath)
-            throws IOException {
-        return fileService.downloadFile(filePath);
-    }
-
     /**
      * Download multiple files as a Zip using <b>filePaths</b> of all the required files.
      */
@@ -0,0 +1,82 @@
+package com.awesomeapps.homeCloud.controller;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ends transfers that stop moving. A servlet async timeout is fixed once the request thread returns, so it can
+ * only cap the whole transfer; here every transfer pushes its own deadline back each time a chunk moves, and a
+ * large file over a slow but steady connection is never cut off.
+ */
+public class IdleWatchdog {
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "transfer-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long idleNanos;
+
+    public IdleWatchdog(Duration idleTimeout) {
+        this.idleNanos = idleTimeout.toNanos();
+    }
+
+    /**
+     * Start watching a transfer, <b>onIdle</b> runs once if it makes no progress for the idle timeout.
+     */
+    Watch watch(Runnable onIdle) {
+        Watch watch = new Watch(onIdle);
+        watch.schedule(idleNanos);
+        return watch;
+    }
+
+    public void shutdown() {
+        timer.shutdownNow();
+    }
+
+    class Watch {
+        private final Runnable onIdle;
+        private volatile long lastProgress = System.nanoTime();
+        private ScheduledFuture<?> check;
+        private boolean cancelled;
+
+        private Watch(Runnable onIdle) {
+            this.onIdle = onIdle;
+        }
+
+        /**
+         * Record that the transfer moved a chunk.
+         */
+        void touch() {
+            lastProgress = System.nanoTime();
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            if (check != null) check.cancel(false);
+        }
+
+        private synchronized void schedule(long delayNanos) {
+            if (cancelled) return;
+            // Checking at the old deadline and rescheduling avoids touching the timer for every chunk
+            check = timer.schedule(this::check, delayNanos, TimeUnit.NANOSECONDS);
+        }
+
+        private void check() {
+            long idle = System.nanoTime() - lastProgress;
+            if (idle < idleNanos) {
+                schedule(idleNanos - idle);
+                return;
+            }
+            synchronized (this) {
+                if (cancelled) return;
+                cancelled = true;
+            }
+            onIdle.run();
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package com.awesomeapps.homeCloud.controller;
+
+import com.awesomeapps.homeCloud.models.FileChecksum;
+import com.awesomeapps.homeCloud.service.FileService;
+import com.awesomeapps.homeCloud.service.IntegrityService;
+import com.awesomeapps.homeCloud.service.StorageService;
+import com.awesomeapps.homeCloud.utils.ChecksumAccumulator;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Serves <i>POST /file/uploadStream?storagePath=&amp;fileName=</i>, which takes the raw file as the request body.
+ * The body is read with non-blocking I/O whenever the client has sent more and written through an asynchronous
+ * file channel, so a slow client holds no thread while its upload trickles in.
+ */
+public class UploadStreamServlet extends HttpServlet {
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadStreamServlet.class);
+
+    private final FileService fileService;
+    private final StorageService storageService;
+    private final IntegrityService integrityService;
+    private final int bufferSize;
+    private final IdleWatchdog watchdog;
+
+    public UploadStreamServlet(FileService fileService, StorageService storageService,
+                               IntegrityService integrityService, int bufferSize, IdleWatchdog watchdog) {
+        this.fileService = fileService;
+        this.storageService = storageService;
+        this.integrityService = integrityService;
+        this.bufferSize = bufferSize;
+        this.watchdog = watchdog;
+    }
+
+    /**
+     * Upload the request body as <b>fileName</b> at <b>storagePath</b>. If a file with same name exists at the
+     * location, a number is added to the file name.
+     */
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        // getParameter would consume a form encoded body, the parameters only come from the query string
+        String storagePath = queryParameter(request, "storagePath");
+        String fileName = queryParameter(request, "fileName");
+        if (storagePath == null || fileName == null || fileName.isBlank()
+                || fileName.contains("/") || fileName.contains("\\")) {
+            respond(response, HttpServletResponse.SC_BAD_REQUEST, "Invalid file name");
+            return;
+        }
+
+        Path filePath;
+        AsynchronousFileChannel channel;
+        try {
+            filePath = fileService.reserveUpload(storagePath, fileName, Math.max(request.getContentLengthLong(), 0));
+            channel = storageService.openAsyncChannel(filePath, StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE_NEW);
+        } catch (IOException e) {
+            logger.warn("Could not start the upload of {}: {}", fileName, e.getMessage());
+            respond(response, HttpServletResponse.SC_BAD_REQUEST, "Error in uploading file: " + e.getMessage());
+            return;
+        }
+
+        AsyncContext context = request.startAsync();
+        // No limit on the whole transfer, the watchdog ends it once it stops moving
+        context.setTimeout(0);
+        Transfer transfer = new Transfer(context, channel, filePath);
+        context.addListener(transfer);
+        request.getInputStream().setReadListener(transfer);
+    }
+
+    private static String queryParameter(HttpServletRequest request, String name) {
+        if (request.getQueryString() == null) return null;
+        for (String pair : request.getQueryString().split("&")) {
+            int separator = pair.indexOf('=');
+            String key = separator < 0 ? pair : pair.substring(0, separator);
+            if (URLDecoder.decode(key, StandardCharsets.UTF_8).equals(name)) {
+                return separator < 0 ? "" : URLDecoder.decode(pair.substring(separator + 1), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    private static void respond(HttpServletResponse response, int status, String message) throws IOException {
+        response.setStatus(status);
+        response.setContentType("text/plain;charset=UTF-8");
+        response.getWriter().write(message);
+    }
+
+    /**
+     * Moves one request body into one file. The container reports new data and writes complete on the volume
+     * I/O pool, both go through {@link #pump()} which keeps at most one write in flight.
+     */
+    private class Transfer implements ReadListener, AsyncListener, CompletionHandler<Integer, Void> {
+        private final AsyncContext context;
+        private final AsynchronousFileChannel channel;
+        private final Path filePath;
+        private final ServletInputStream in;
+        private final byte[] buffer = new byte[bufferSize];
+        private final ChecksumAccumulator accumulator = new ChecksumAccumulator();
+        private ByteBuffer pending;
+        private long position;
+        private boolean allRead;
+        private boolean done;
+        private final IdleWatchdog.Watch watch = watchdog.watch(
+                () -> fail(new IOException("Upload stalled after " + position + " bytes")));
+
+        Transfer(AsyncContext context, AsynchronousFileChannel channel, Path filePath) throws IOException {
+            this.context = context;
+            this.channel = channel;
+            this.filePath = filePath;
+            this.in = context.getRequest().getInputStream();
+        }
+
+        @Override
+        public void onDataAvailable() {
+            pump();
+        }
+
+        @Override
+        public void onAllDataRead() {
+            synchronized (this) {
+                allRead = true;
+            }
+            pump();
+        }
+
+        private synchronized void pump() {
+            try {
+                while (!done && pending == null) {
+                    if (allRead || in.isFinished()) {
+                        finish();
+                    } else if (!in.isReady()) {
+                        // The container calls onDataAvailable once the client has sent more
+                        return;
+                    } else {
+                        int read = in.read(buffer);
+                        if (read <= 0) continue;
+                        watch.touch();
+                        accumulator.update(buffer, 0, read);
+                        pending = ByteBuffer.wrap(buffer, 0, read);
+                        channel.write(pending, position, null, this);
+                    }
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        @Override
+        public void completed(Integer written, Void attachment) {
+            synchronized (this) {
+                position += written;
+                watch.touch();
+                if (pending.hasRemaining()) {
+                    channel.write(pending, position, null, this);
+                    return;
+                }
+                pending = null;
+            }
+            pump();
+        }
+
+        @Override
+        public void failed(Throwable throwable, Void attachment) {
+            fail(throwable);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            fail(throwable);
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            close();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            fail(new IOException("Upload timed out after " + position + " bytes"));
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            fail(event.getThrowable());
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+
+        private synchronized void finish() {
+            if (done) return;
+            FileChecksum checksum = accumulator.finish();
+            try {
+                channel.close();
+                fileService.completeUpload(filePath, checksum);
+            } catch (IOException e) {
+                fail(e);
+                return;
+            }
+            done = true;
+
+            HttpServletResponse response = (HttpServletResponse) context.getResponse();
+            integrityService.digestHeaders(checksum)
+                    .forEach((name, values) -> values.forEach(value -> response.addHeader(name, value)));
+            try {
+                respond(response, HttpServletResponse.SC_OK, "Upload Successful");
+            } catch (IOException e) {
+                logger.debug("Could not confirm the upload of {}: {}", filePath.getFileName(), e.getMessage());
+            }
+            context.complete();
+        }
+
+        private synchronized void fail(Throwable throwable) {
+            if (done) return;
+            done = true;
+            logger.warn("Upload of {} failed: {}", filePath.getFileName(),
+                    throwable == null ? "unknown error" : throwable.getMessage());
+            close();
+
+            // Do not leave a partial file behind
+            try {
+                Files.deleteIfExists(filePath);
+                storageService.forget(storageService.toVirtualPath(filePath));
+            } catch (IOException e) {
+                logger.warn("Could not delete the partial upload {}: {}", filePath.getFileName(), e.getMessage());
+            }
+
+            HttpServletResponse response = (HttpServletResponse) context.getResponse();
+            if (!response.isCommitted()) {
+                try {
+                    respond(response, HttpServletResponse.SC_BAD_REQUEST, "Error in uploading file: " +
+                            (throwable == null ? "unknown error" : throwable.getMessage()));
+                } catch (IOException | IllegalStateException e) {
+                    logger.debug("Could not report the failed upload: {}", e.getMessage());
+                }
+            }
+            context.complete();
+        }
+
+        private void close() {
+            watch.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.warn("Could not close the uploaded file {}: {}", filePath.getFileName(), e.getMessage());
+            }
+        }
+    }
+}
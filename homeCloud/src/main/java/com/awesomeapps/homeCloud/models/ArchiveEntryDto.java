@@ -0,0 +1,58 @@
+package com.awesomeapps.homeCloud.models;
+
+public class ArchiveEntryDto {
+    private String name; // full path of the entry inside the archive
+    private String type; // file or directory
+    private long size;
+    private long compressedSize;
+    private String lastModified;
+
+    public ArchiveEntryDto(String name, String type, long size, long compressedSize, String lastModified) {
+        this.name = name;
+        this.type = type;
+        this.size = size;
+        this.compressedSize = compressedSize;
+        this.lastModified = lastModified;
+    }
+
+    // Getters and setters
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public long getCompressedSize() {
+        return compressedSize;
+    }
+
+    public void setCompressedSize(long compressedSize) {
+        this.compressedSize = compressedSize;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(String lastModified) {
+        this.lastModified = lastModified;
+    }
+}
@@ -0,0 +1,63 @@
+package com.awesomeapps.homeCloud.models;
+
+public class FileChecksum {
+    private String sha256; // lowercase hex
+    private long crc32c;
+    private long size;
+    private long lastModified; // epoch millis of the file when the checksum was recorded
+    private long verifiedAt; // epoch millis of the last successful verification
+
+    public FileChecksum(String sha256, long crc32c, long size) {
+        this.sha256 = sha256;
+        this.crc32c = crc32c;
+        this.size = size;
+    }
+
+    // Getters and setters
+    public String getSha256() {
+        return sha256;
+    }
+
+    public void setSha256(String sha256) {
+        this.sha256 = sha256;
+    }
+
+    public long getCrc32c() {
+        return crc32c;
+    }
+
+    public void setCrc32c(long crc32c) {
+        this.crc32c = crc32c;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(long lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    public long getVerifiedAt() {
+        return verifiedAt;
+    }
+
+    public void setVerifiedAt(long verifiedAt) {
+        this.verifiedAt = verifiedAt;
+    }
+
+    /**
+     * Check if the data described by this checksum is the same as the data described by <b>other</b>.
+     */
+    public boolean sameContentAs(FileChecksum other) {
+        return other != null && size == other.size && crc32c == other.crc32c && sha256.equals(other.sha256);
+    }
+}
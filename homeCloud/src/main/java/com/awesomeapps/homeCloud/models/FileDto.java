@@ -1,10 +1,14 @@
 package com.awesomeapps.homeCloud.models;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class FileDto {
     private String name;
     private String type; // file or directory
     private long size;
     private String creationDate;
+    private Long creationTimestamp; // epoch milliseconds, only set when asked for instead of creationDate
 
     public FileDto(String name, String type, long size, String creationDate) {
         this.name = name;
@@ -45,5 +49,13 @@ public class FileDto {
     public void setCreationDate(String creationDate) {
         this.creationDate = creationDate;
     }
+
+    public Long getCreationTimestamp() {
+        return creationTimestamp;
+    }
+
+    public void setCreationTimestamp(Long creationTimestamp) {
+        this.creationTimestamp = creationTimestamp;
+    }
 }
 
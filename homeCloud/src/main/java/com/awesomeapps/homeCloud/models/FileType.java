@@ -0,0 +1,29 @@
+package com.awesomeapps.homeCloud.models;
+
+/**
+ * Kind of entry in a listing, with the label used in JSON and the code used in the binary listing.
+ */
+public enum FileType {
+    FILE(0, "file"),
+    DIRECTORY(1, "directory");
+
+    private final int code;
+    private final String label;
+
+    FileType(int code, String label) {
+        this.code = code;
+        this.label = label;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public static FileType fromLabel(String label) {
+        return DIRECTORY.label.equals(label) ? DIRECTORY : FILE;
+    }
+}
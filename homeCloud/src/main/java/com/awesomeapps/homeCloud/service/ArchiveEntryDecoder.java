@@ -0,0 +1,139 @@
+package com.awesomeapps.homeCloud.service;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Decompresses the data of one ZIP entry as it is handed over in chunks, so the chunks can come from an
+ * asynchronous channel and no thread waits for the disk. The output is checked against the size and CRC-32 of
+ * the central directory, and the last bytes are only given out once they match.
+ */
+public class ArchiveEntryDecoder implements Closeable {
+
+    // Without the zlib wrapper the inflater may ask for one byte past the end of the compressed data
+    private static final byte[] PADDING = new byte[1];
+
+    private final Path archive;
+    private final String name;
+    private final long dataOffset;
+    private final long compressedSize;
+    private final long size;
+    private final long crc;
+    private final Inflater inflater; // null for stored entries
+    private final CRC32 checksum = new CRC32();
+    private ByteBuffer input = ByteBuffer.allocate(0);
+    private long consumed;
+    private long produced;
+    private boolean padded;
+    private boolean checked;
+
+    ArchiveEntryDecoder(Path archive, String name, long dataOffset, long compressedSize, long size, long crc,
+                        boolean deflated) {
+        this.archive = archive;
+        this.name = name;
+        this.dataOffset = dataOffset;
+        this.compressedSize = compressedSize;
+        this.size = size;
+        this.crc = crc;
+        this.inflater = deflated ? new Inflater(true) : null;
+    }
+
+    public Path getArchive() {
+        return archive;
+    }
+
+    public String getFileName() {
+        return name.substring(name.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * Size of the decompressed entry.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Position in the archive of the compressed data to hand over next.
+     */
+    public long getInputPosition() {
+        return dataOffset + consumed;
+    }
+
+    /**
+     * Number of compressed bytes not handed over yet.
+     */
+    public long getInputRemaining() {
+        return compressedSize - consumed;
+    }
+
+    /**
+     * Hand over compressed data read at {@link #getInputPosition()}. The decoder keeps using <b>chunk</b> until
+     * {@link #decode(byte[])} asks for more.
+     */
+    public void feed(ByteBuffer chunk) {
+        if (chunk.remaining() > getInputRemaining()) chunk.limit(chunk.position() + (int) getInputRemaining());
+        consumed += chunk.remaining();
+        input = chunk;
+        if (inflater != null) inflater.setInput(chunk);
+    }
+
+    /**
+     * Decompress into <b>output</b> and get the number of bytes written to it, 0 if more compressed data must be
+     * fed first, or -1 once the whole entry was given out.
+     *
+     * @throws ZipException if the data is damaged or does not match the size or CRC-32 of the entry. The check
+     *                      runs before the bytes that complete the entry are given out, so they are withheld.
+     */
+    public int decode(byte[] output) throws ZipException {
+        if (checked) return -1;
+
+        int count;
+        if (inflater == null) {
+            count = Math.min(output.length, input.remaining());
+            input.get(output, 0, count);
+        } else {
+            count = inflate(output);
+        }
+        checksum.update(output, 0, count);
+        produced += count;
+
+        if (produced > size) {
+            throw new ZipException("Entry " + name + " has more than the expected " + size + " bytes");
+        }
+        if (produced == size) {
+            if (checksum.getValue() != crc) throw new ZipException("CRC-32 mismatch in entry " + name);
+            checked = true;
+            return count == 0 ? -1 : count;
+        }
+        if (count == 0 && (getInputRemaining() == 0 || inflater != null && inflater.finished())) {
+            throw new ZipException("Entry " + name + " has " + produced + " bytes, expected " + size);
+        }
+        return count;
+    }
+
+    private int inflate(byte[] output) throws ZipException {
+        try {
+            int count = inflater.inflate(output);
+            if (count == 0 && inflater.needsInput() && getInputRemaining() == 0 && !padded) {
+                padded = true;
+                inflater.setInput(PADDING);
+                count = inflater.inflate(output);
+            }
+            if (inflater.needsDictionary()) throw new ZipException("Entry " + name + " needs a preset dictionary");
+            return count;
+        } catch (DataFormatException e) {
+            throw new ZipException("Corrupt data in entry " + name + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        if (inflater != null) inflater.end();
+    }
+}
@@ -0,0 +1,328 @@
+package com.awesomeapps.homeCloud.service;
+
+import com.awesomeapps.homeCloud.models.ArchiveEntryDto;
+import com.awesomeapps.homeCloud.models.FileType;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipException;
+
+/**
+ * Lists and extracts the entries of ZIP archives in the store without reading the whole archive. Only the end
+ * of central directory record and the central directory are read, with positional reads into heap buffers, and
+ * the data of a single entry is decoded as the caller reads it from its offset.
+ */
+@Service
+public class ArchiveService {
+
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int END_SIZE = 22;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int ZIP64_END_SIZE = 56;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int FLAG_ENCRYPTED = 0x1;
+    private static final int FLAG_UTF8 = 0x800;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    // Names without the UTF-8 flag are in the original PC code page
+    private static final Charset LEGACY_CHARSET =
+            Charset.isSupported("IBM437") ? Charset.forName("IBM437") : StandardCharsets.ISO_8859_1;
+
+    @Autowired
+    private StorageService storageService;
+
+    @Value("${homeCloud.archive.cacheSize}")
+    private int cacheSize;
+
+    // Archive path -> its parsed central directory, least recently used first
+    private final Map<Path, CentralDirectory> cache = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Get the entries of the ZIP archive at <b>filePath</b>.
+     */
+    public ResponseEntity<List<ArchiveEntryDto>> listEntries(String filePath) throws IOException {
+        // Validate and sanitize the filePath to prevent directory traversal attacks
+        Path archive = storageService.resolve(filePath);
+        if (archive == null) return ResponseEntity.badRequest().body(null);
+        if (!Files.isRegularFile(archive)) return ResponseEntity.notFound().build();
+
+        CentralDirectory directory;
+        try {
+            directory = centralDirectory(archive);
+        } catch (ZipException e) {
+            return ResponseEntity.badRequest().body(null);
+        }
+
+        List<ArchiveEntryDto> entries = new ArrayList<>(directory.entries.size());
+        for (Entry entry : directory.entries.values()) entries.add(entry.toDto());
+        return ResponseEntity.ok(entries);
+    }
+
+    /**
+     * Find the entry <b>entryName</b> of the ZIP archive at <b>filePath</b> and get a decoder for its data. The
+     * caller reads the compressed data where the decoder asks for it, on whatever channel suits it.
+     */
+    public ResponseEntity<ArchiveEntryDecoder> openEntry(String filePath, String entryName) throws IOException {
+        // Validate and sanitize the filePath to prevent directory traversal attacks
+        Path archive = storageService.resolve(filePath);
+        if (archive == null) return ResponseEntity.badRequest().body(null);
+        if (!Files.isRegularFile(archive)) return ResponseEntity.notFound().build();
+
+        CentralDirectory directory;
+        Entry entry;
+        try {
+            directory = centralDirectory(archive);
+            entry = directory.entries.get(entryName);
+        } catch (ZipException e) {
+            return ResponseEntity.badRequest().body(null);
+        }
+        if (entry == null) return ResponseEntity.notFound().build();
+        if (entry.isDirectory()) return ResponseEntity.badRequest().body(null);
+        if ((entry.flags & FLAG_ENCRYPTED) != 0 || (entry.method != STORED && entry.method != DEFLATED)) {
+            return ResponseEntity.status(HttpStatus.UNSUPPORTED_MEDIA_TYPE).body(null);
+        }
+
+        long dataOffset;
+        try {
+            dataOffset = dataOffset(archive, entry);
+            if (dataOffset + entry.compressedSize > directory.size) {
+                throw new ZipException("Entry " + entry.name + " runs past the end of the archive");
+            }
+        } catch (ZipException e) {
+            return ResponseEntity.badRequest().body(null);
+        }
+        return ResponseEntity.ok(new ArchiveEntryDecoder(archive, entry.name, dataOffset, entry.compressedSize,
+                entry.size, entry.crc, entry.method == DEFLATED));
+    }
+
+    /**
+     * Get the central directory of <b>archive</b>, parsing it again only if the archive changed since it was
+     * cached.
+     */
+    private CentralDirectory centralDirectory(Path archive) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(archive, BasicFileAttributes.class);
+        long lastModified = attributes.lastModifiedTime().toMillis();
+
+        synchronized (cache) {
+            CentralDirectory cached = cache.get(archive);
+            if (cached != null && cached.lastModified == lastModified && cached.size == attributes.size()) {
+                return cached;
+            }
+        }
+
+        CentralDirectory directory = parse(archive, lastModified, attributes.size());
+        synchronized (cache) {
+            cache.put(archive, directory);
+            Iterator<CentralDirectory> eldest = cache.values().iterator();
+            while (cache.size() > cacheSize && eldest.hasNext()) {
+                eldest.next();
+                eldest.remove();
+            }
+        }
+        return directory;
+    }
+
+    private CentralDirectory parse(Path archive, long lastModified, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ)) {
+            if (size < END_SIZE) throw new ZipException("Not a ZIP archive");
+
+            // The end record sits in the last bytes of the archive, followed only by the archive comment
+            int tailLength = (int) Math.min(size, END_SIZE + MAX_COMMENT_LENGTH);
+            long tailStart = size - tailLength;
+            // Positional reads rather than a mapping, which would keep the archive locked on Windows until the
+            // buffer is garbage collected
+            ByteBuffer tail = read(channel, tailStart, tailLength);
+            int end = tailLength - END_SIZE;
+            while (end >= 0 && tail.getInt(end) != END_SIGNATURE) end--;
+            if (end < 0) throw new ZipException("Not a ZIP archive");
+
+            long entryCount = tail.getShort(end + 10) & 0xFFFF;
+            long directorySize = tail.getInt(end + 12) & 0xFFFFFFFFL;
+            long directoryOffset = tail.getInt(end + 16) & 0xFFFFFFFFL;
+
+            // Archives that are too large for the classic fields keep the real values in the ZIP64 end record
+            long endPosition = tailStart + end;
+            if ((entryCount == 0xFFFF || directorySize == ZIP64_MAGIC || directoryOffset == ZIP64_MAGIC)
+                    && endPosition >= ZIP64_LOCATOR_SIZE) {
+                ByteBuffer locator = read(channel, endPosition - ZIP64_LOCATOR_SIZE, ZIP64_LOCATOR_SIZE);
+                if (locator.getInt(0) == ZIP64_LOCATOR_SIGNATURE) {
+                    // The ZIP64 end record comes before its locator, anything else is a damaged archive
+                    long zip64EndOffset = locator.getLong(8);
+                    if (zip64EndOffset < 0 || zip64EndOffset > endPosition - ZIP64_LOCATOR_SIZE - ZIP64_END_SIZE) {
+                        throw new ZipException("Corrupt ZIP64 end of central directory locator");
+                    }
+                    ByteBuffer zip64End = read(channel, zip64EndOffset, ZIP64_END_SIZE);
+                    if (zip64End.getInt(0) != ZIP64_END_SIGNATURE) {
+                        throw new ZipException("Corrupt ZIP64 end of central directory");
+                    }
+                    entryCount = zip64End.getLong(32);
+                    directorySize = zip64End.getLong(40);
+                    directoryOffset = zip64End.getLong(48);
+                }
+            }
+            if (directoryOffset < 0 || directorySize < 0 || directorySize > Integer.MAX_VALUE
+                    || directoryOffset + directorySize > size) {
+                throw new ZipException("Corrupt central directory");
+            }
+
+            ByteBuffer directory = read(channel, directoryOffset, (int) directorySize);
+            Map<String, Entry> entries = new LinkedHashMap<>((int) Math.min(entryCount, 1 << 16) * 4 / 3 + 1);
+
+            int position = 0;
+            while (position + CENTRAL_HEADER_SIZE <= directorySize
+                    && directory.getInt(position) == CENTRAL_HEADER_SIGNATURE) {
+                int nameLength = directory.getShort(position + 28) & 0xFFFF;
+                int extraLength = directory.getShort(position + 30) & 0xFFFF;
+                int commentLength = directory.getShort(position + 32) & 0xFFFF;
+                int next = position + CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+                if (next > directorySize) throw new ZipException("Corrupt central directory");
+
+                Entry entry = new Entry();
+                entry.flags = directory.getShort(position + 8) & 0xFFFF;
+                entry.method = directory.getShort(position + 10) & 0xFFFF;
+                entry.dosTime = directory.getInt(position + 12);
+                entry.crc = directory.getInt(position + 16) & 0xFFFFFFFFL;
+                entry.compressedSize = directory.getInt(position + 20) & 0xFFFFFFFFL;
+                entry.size = directory.getInt(position + 24) & 0xFFFFFFFFL;
+                entry.localHeaderOffset = directory.getInt(position + 42) & 0xFFFFFFFFL;
+
+                byte[] name = new byte[nameLength];
+                directory.get(position + CENTRAL_HEADER_SIZE, name);
+                entry.name = new String(name, (entry.flags & FLAG_UTF8) != 0 ? StandardCharsets.UTF_8 : LEGACY_CHARSET);
+
+                readZip64Extra(directory, position + CENTRAL_HEADER_SIZE + nameLength, extraLength, entry);
+                entries.put(entry.name, entry);
+                position = next;
+            }
+
+            return new CentralDirectory(lastModified, size, entries);
+        }
+    }
+
+    /**
+     * Take the sizes and offset of <b>entry</b> that did not fit in the central header from its ZIP64 extra
+     * field. Only the values set to <i>0xFFFFFFFF</i> are present, in this order.
+     */
+    private static void readZip64Extra(ByteBuffer directory, int offset, int length, Entry entry) {
+        int end = offset + length;
+        while (offset + 4 <= end) {
+            int id = directory.getShort(offset) & 0xFFFF;
+            int size = directory.getShort(offset + 2) & 0xFFFF;
+            if (id == ZIP64_EXTRA_ID) {
+                int field = offset + 4;
+                int fieldsEnd = Math.min(field + size, end);
+                if (entry.size == ZIP64_MAGIC && field + 8 <= fieldsEnd) {
+                    entry.size = directory.getLong(field);
+                    field += 8;
+                }
+                if (entry.compressedSize == ZIP64_MAGIC && field + 8 <= fieldsEnd) {
+                    entry.compressedSize = directory.getLong(field);
+                    field += 8;
+                }
+                if (entry.localHeaderOffset == ZIP64_MAGIC && field + 8 <= fieldsEnd) {
+                    entry.localHeaderOffset = directory.getLong(field);
+                }
+                return;
+            }
+            offset += 4 + size;
+        }
+    }
+
+    /**
+     * Get the position of the data of <b>entry</b>, right after its local header.
+     */
+    private static long dataOffset(Path archive, Entry entry) throws IOException {
+        try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ)) {
+            ByteBuffer header = read(channel, entry.localHeaderOffset, LOCAL_HEADER_SIZE);
+            if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+                throw new ZipException("Corrupt local header of " + entry.name);
+            }
+            // The local name and extra field may differ from the central ones, only their lengths matter
+            return entry.localHeaderOffset + LOCAL_HEADER_SIZE + (header.getShort(26) & 0xFFFF)
+                    + (header.getShort(28) & 0xFFFF);
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new ZipException("Unexpected end of archive");
+            }
+        }
+        return buffer;
+    }
+
+    private static class CentralDirectory {
+        private final long lastModified;
+        private final long size;
+        private final Map<String, Entry> entries;
+
+        CentralDirectory(long lastModified, long size, Map<String, Entry> entries) {
+            this.lastModified = lastModified;
+            this.size = size;
+            this.entries = entries;
+        }
+    }
+
+    private static class Entry {
+        private String name;
+        private int flags;
+        private int method;
+        private int dosTime; // MS-DOS time in the low and date in the high 16 bits
+        private long crc;
+        private long compressedSize;
+        private long size;
+        private long localHeaderOffset;
+
+        boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+        @NotNull ArchiveEntryDto toDto() {
+            FileType type = isDirectory() ? FileType.DIRECTORY : FileType.FILE;
+            return new ArchiveEntryDto(name, type.getLabel(), size, compressedSize, lastModified());
+        }
+
+        private String lastModified() {
+            int time = dosTime & 0xFFFF;
+            int date = dosTime >>> 16;
+            try {
+                return LocalDateTime.of(((date >> 9) & 0x7F) + 1980, (date >> 5) & 0x0F, date & 0x1F,
+                        time >> 11, (time >> 5) & 0x3F, (time & 0x1F) * 2).toString();
+            } catch (DateTimeException e) {
+                return null;
+            }
+        }
+    }
+}
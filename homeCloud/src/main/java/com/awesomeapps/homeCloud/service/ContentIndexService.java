@@ -0,0 +1,649 @@
+package com.awesomeapps.homeCloud.service;
+
+import com.awesomeapps.homeCloud.utils.Utils;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Inverted index over the contents of text-like files, kept on disk under the primary storage root.
+ * <p>
+ * Newly indexed files are collected in memory and flushed as an immutable segment, segments are merged once
+ * there are too many of them. Documents are listed in an append-only log, so renames and deletes never rewrite
+ * a segment: postings of documents that are no longer in the log are skipped at query time and dropped on merge.
+ * All updates run on a single low priority thread.
+ */
+@Service
+public class ContentIndexService {
+    public static final String INDEX_FOLDER_NAME = Utils.METADATA_PREFIX + ".index";
+
+    private static final String DOCS_FILE_NAME = "docs.log";
+    private static final String SEGMENT_PREFIX = "seg-";
+    private static final String SEGMENT_SUFFIX = ".idx";
+    private static final int SEGMENT_MAGIC = 0x48434958; // "HCIX"
+    private static final int MIN_TERM_LENGTH = 2;
+    private static final int MAX_TERM_LENGTH = 64;
+
+    private static final Logger logger = LoggerFactory.getLogger(ContentIndexService.class);
+
+    @Autowired
+    private StorageService storageService;
+
+    @Value("${homeCloud.index.enabled}")
+    private boolean indexEnabled;
+
+    @Value("${homeCloud.index.extensions}")
+    private Set<String> textExtensions;
+
+    @Value("${homeCloud.index.maxFileSize}")
+    private int maxFileSize;
+
+    @Value("${homeCloud.index.flushDocs}")
+    private int flushDocs;
+
+    @Value("${homeCloud.index.maxSegments}")
+    private int maxSegments;
+
+    private final ExecutorService indexer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "content-indexer");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Everything below is only changed on the indexer thread, under the write lock
+    private final Map<Integer, Doc> docs = new HashMap<>();
+    private final Map<String, Integer> docIds = new HashMap<>();
+    private final List<Segment> segments = new ArrayList<>();
+    private final Map<String, List<Integer>> buffer = new HashMap<>(); // postings not flushed yet
+    private int bufferedDocs;
+    private int nextDocId;
+    private int nextSegmentId;
+    private Writer docsLog;
+
+    private volatile Path indexDir;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!indexEnabled) return;
+
+        Path root = storageService.getPrimaryRoot();
+        if (!Files.isDirectory(root)) {
+            logger.warn("Content index disabled, storage root {} does not exist", root);
+            return;
+        }
+
+        indexDir = root.resolve(INDEX_FOLDER_NAME);
+        submit(() -> {
+            try {
+                load();
+            } catch (IOException e) {
+                indexDir = null;
+                throw e;
+            }
+            reconcile("");
+        });
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (indexDir != null) {
+            submit(() -> {
+                flush();
+                if (docsLog != null) docsLog.close();
+            });
+        }
+        indexer.shutdown();
+        indexer.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    public boolean isEnabled() {
+        return indexDir != null;
+    }
+
+    /**
+     * Get the virtual paths of up to <b>limit</b> files containing every word of <b>query</b>.
+     */
+    public List<String> search(String query, int limit) {
+        Set<String> terms = tokenize(query);
+        List<String> paths = new ArrayList<>();
+        if (terms.isEmpty()) return paths;
+
+        lock.readLock().lock();
+        try {
+            int[] matches = null;
+            for (String term : terms) {
+                int[] postings = postingsOf(term);
+                matches = matches == null ? postings : intersect(matches, postings);
+                if (matches.length == 0) break;
+            }
+
+            for (int id : matches) {
+                Doc doc = docs.get(id);
+                if (doc == null) continue;
+                paths.add(doc.path);
+                if (paths.size() >= limit) break;
+            }
+            return paths;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * (Re-)index the file at <b>virtualPath</b> after it was written.
+     */
+    public void fileChanged(String virtualPath) {
+        submit(() -> indexFile(StorageService.normalize(virtualPath)));
+    }
+
+    public void fileRemoved(String virtualPath) {
+        submit(() -> removeDocs(StorageService.normalize(virtualPath), false));
+    }
+
+    public void fileMoved(String fromPath, String toPath) {
+        submit(() -> moveDocs(StorageService.normalize(fromPath), StorageService.normalize(toPath), false));
+    }
+
+    /**
+     * Index every file under <b>virtualDir</b> that is new or changed, and drop the ones that are gone.
+     */
+    public void directoryChanged(String virtualDir) {
+        submit(() -> reconcile(StorageService.normalize(virtualDir)));
+    }
+
+    public void directoryMoved(String fromDir, String toDir) {
+        submit(() -> moveDocs(StorageService.normalize(fromDir), StorageService.normalize(toDir), true));
+    }
+
+    @Scheduled(initialDelayString = "${homeCloud.index.flushInterval}",
+            fixedDelayString = "${homeCloud.index.flushInterval}")
+    public void flushPeriodically() {
+        submit(this::flush);
+    }
+
+    /**
+     * Flush the buffered documents and wait until it is done.
+     */
+    void flushNow() throws InterruptedException {
+        submit(this::flush);
+        awaitIdle();
+    }
+
+    /**
+     * Wait until every update queued so far has been applied.
+     */
+    void awaitIdle() throws InterruptedException {
+        try {
+            indexer.submit(() -> { }).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private void submit(IndexTask task) {
+        if (indexDir == null || indexer.isShutdown()) return;
+
+        try {
+            indexer.execute(() -> {
+                // The index may have been disabled by a failed load while this task was queued
+                if (indexDir == null) return;
+                try {
+                    task.run();
+                } catch (IOException | UncheckedIOException e) {
+                    logger.warn("Content index update failed: {}", e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shutting down, the file is picked up by the reconcile on the next start
+            logger.debug("Content index update dropped during shutdown");
+        }
+    }
+
+    private void indexFile(String key) throws IOException {
+        Path path = storageService.resolve(key);
+        if (path == null || !Files.isRegularFile(path) || !isTextFile(key)) {
+            removeDocs(key, false);
+            return;
+        }
+
+        long lastModified = Files.getLastModifiedTime(path).toMillis();
+        Set<String> terms;
+        try (InputStream in = storageService.openBackgroundInputStream(path)) {
+            terms = tokenize(new String(in.readNBytes(maxFileSize), StandardCharsets.UTF_8));
+        }
+
+        lock.writeLock().lock();
+        try {
+            Integer oldId = docIds.get(key);
+            if (oldId != null) removeDoc(oldId);
+
+            int id = nextDocId++;
+            docs.put(id, new Doc(key, lastModified));
+            docIds.put(key, id);
+            for (String term : terms) buffer.computeIfAbsent(term, t -> new ArrayList<>()).add(id);
+            bufferedDocs++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        if (bufferedDocs >= flushDocs) flush();
+    }
+
+    private void reconcile(String dir) throws IOException {
+        // Drop documents whose file is gone
+        List<String> indexed;
+        lock.readLock().lock();
+        try {
+            indexed = docIds.keySet().stream().filter(path -> isUnder(path, dir, true)).toList();
+        } finally {
+            lock.readLock().unlock();
+        }
+        for (String path : indexed) {
+            Path file = storageService.resolve(path);
+            if (file == null || !Files.isRegularFile(file)) removeDocs(path, false);
+        }
+
+        // Index files that are new or changed since they were indexed
+        for (Path dirPath : storageService.resolveAll(dir)) {
+            List<Path> files;
+            try (Stream<Path> paths = Files.walk(dirPath)) {
+                files = paths.filter(Files::isRegularFile)
+                        .filter(path -> !Utils.isMetadataFile(path))
+                        .toList();
+            }
+
+            for (Path file : files) {
+                String key = storageService.toVirtualPath(file);
+                if (isTextFile(key) && !isIndexed(key, Files.getLastModifiedTime(file).toMillis())) indexFile(key);
+            }
+        }
+        flush();
+    }
+
+    private void removeDocs(String path, boolean directory) throws IOException {
+        lock.writeLock().lock();
+        try {
+            List<Integer> ids = docIds.entrySet().stream()
+                    .filter(entry -> isUnder(entry.getKey(), path, directory))
+                    .map(Map.Entry::getValue)
+                    .toList();
+            for (int id : ids) removeDoc(id);
+            docsLog.flush();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void moveDocs(String fromPath, String toPath, boolean directory) throws IOException {
+        if (!directory && !isTextFile(toPath)) {
+            removeDocs(fromPath, false);
+            return;
+        }
+        if (!directory && !docIds.containsKey(fromPath)) {
+            indexFile(toPath);
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            List<Integer> ids = docIds.entrySet().stream()
+                    .filter(entry -> isUnder(entry.getKey(), fromPath, directory))
+                    .map(Map.Entry::getValue)
+                    .toList();
+            for (int id : ids) {
+                Doc doc = docs.get(id);
+                docIds.remove(doc.path);
+                doc.path = toPath + doc.path.substring(fromPath.length());
+                docIds.put(doc.path, id);
+                if (doc.persisted) logDoc(id, doc);
+            }
+            docsLog.flush();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void removeDoc(int id) throws IOException {
+        Doc doc = docs.remove(id);
+        docIds.remove(doc.path);
+        if (doc.persisted) docsLog.write("D " + id + "\n");
+    }
+
+    private void logDoc(int id, Doc doc) throws IOException {
+        docsLog.write("A " + id + " " + doc.lastModified + " " + doc.path + "\n");
+    }
+
+    /**
+     * Write the buffered postings as a new segment, then record the buffered documents in the log. A crash in
+     * between leaves postings for documents that were never logged, which are ignored like deleted ones.
+     */
+    private void flush() throws IOException {
+        // Documents without any terms, like empty files, still have to be logged
+        Segment segment = null;
+        if (!buffer.isEmpty()) {
+            SortedMap<String, int[]> postings = new TreeMap<>();
+            for (Map.Entry<String, List<Integer>> entry : buffer.entrySet()) {
+                postings.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+            }
+            segment = writeSegment(postings);
+        }
+
+        lock.writeLock().lock();
+        try {
+            if (segment != null) segments.add(segment);
+            buffer.clear();
+            bufferedDocs = 0;
+            for (Map.Entry<Integer, Doc> entry : docs.entrySet()) {
+                if (entry.getValue().persisted) continue;
+                logDoc(entry.getKey(), entry.getValue());
+                entry.getValue().persisted = true;
+            }
+            docsLog.flush();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        if (segments.size() > maxSegments) merge();
+    }
+
+    /**
+     * Merge all segments into one without the postings of removed documents, and compact the document log.
+     */
+    private void merge() throws IOException {
+        List<Segment> merging = new ArrayList<>(segments);
+        SortedMap<String, int[]> postings = new TreeMap<>();
+        for (Segment segment : merging) {
+            for (int i = 0; i < segment.terms.length; i++) {
+                int[] live = Arrays.stream(segment.postings[i]).filter(docs::containsKey).toArray();
+                if (live.length > 0) postings.merge(segment.terms[i], live, ContentIndexService::union);
+            }
+        }
+        Segment merged = writeSegment(postings);
+
+        lock.writeLock().lock();
+        try {
+            segments.removeAll(merging);
+            segments.add(merged);
+            rewriteDocsLog();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        for (Segment segment : merging) Files.deleteIfExists(segment.file);
+    }
+
+    private void load() throws IOException {
+        Files.createDirectories(indexDir);
+
+        try (Stream<Path> files = Files.list(indexDir)) {
+            for (Path file : files.toList()) {
+                String name = file.getFileName().toString();
+                if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) continue;
+
+                Segment segment = readSegment(file);
+                segments.add(segment);
+                nextDocId = Math.max(nextDocId, segment.maxDocId + 1);
+                nextSegmentId = Math.max(nextSegmentId, Integer.parseInt(
+                        name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())) + 1);
+            }
+        }
+
+        Path docsFile = indexDir.resolve(DOCS_FILE_NAME);
+        if (Files.exists(docsFile)) {
+            try (BufferedReader reader = Files.newBufferedReader(docsFile, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) replay(line);
+            }
+        }
+
+        docsLog = Files.newBufferedWriter(docsFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        logger.info("Content index loaded with {} documents in {} segments", docs.size(), segments.size());
+    }
+
+    private void replay(String line) {
+        String[] parts = line.split(" ", 4);
+        try {
+            int id = Integer.parseInt(parts[1]);
+            nextDocId = Math.max(nextDocId, id + 1);
+
+            Doc old = docs.remove(id);
+            if (old != null) docIds.remove(old.path);
+            if (parts[0].equals("A") && parts.length == 4) {
+                Doc doc = new Doc(parts[3], Long.parseLong(parts[2]));
+                doc.persisted = true;
+                docs.put(id, doc);
+                docIds.put(doc.path, id);
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            // A torn last line after a crash, the file will simply be indexed again
+        }
+    }
+
+    private void rewriteDocsLog() throws IOException {
+        docsLog.close();
+
+        Path docsFile = indexDir.resolve(DOCS_FILE_NAME);
+        Path temp = indexDir.resolve(DOCS_FILE_NAME + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<Integer, Doc> entry : docs.entrySet()) {
+                Doc doc = entry.getValue();
+                if (doc.persisted) writer.write("A " + entry.getKey() + " " + doc.lastModified + " " + doc.path + "\n");
+            }
+        }
+        Files.move(temp, docsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        docsLog = Files.newBufferedWriter(docsFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Segment layout: magic, highest doc id, term count, then per term (sorted) the length of the prefix shared
+     * with the previous term, the remaining UTF-8 bytes and the delta encoded doc ids. All counts are varints.
+     */
+    private Segment writeSegment(SortedMap<String, int[]> postings) throws IOException {
+        Path file = indexDir.resolve(SEGMENT_PREFIX + nextSegmentId++ + SEGMENT_SUFFIX);
+        Path temp = indexDir.resolve(file.getFileName() + ".tmp");
+
+        int maxDocId = postings.values().stream().flatMapToInt(Arrays::stream).max().orElse(-1);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(SEGMENT_MAGIC);
+            out.writeInt(maxDocId);
+            writeVarInt(out, postings.size());
+
+            byte[] previous = new byte[0];
+            for (Map.Entry<String, int[]> entry : postings.entrySet()) {
+                byte[] term = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                int shared = 0;
+                while (shared < previous.length && shared < term.length && previous[shared] == term[shared]) shared++;
+
+                writeVarInt(out, shared);
+                writeVarInt(out, term.length - shared);
+                out.write(term, shared, term.length - shared);
+
+                int[] ids = entry.getValue();
+                writeVarInt(out, ids.length);
+                int last = 0;
+                for (int id : ids) {
+                    writeVarInt(out, id - last);
+                    last = id;
+                }
+                previous = term;
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        return new Segment(file, maxDocId, postings.keySet().toArray(new String[0]),
+                postings.values().toArray(new int[0][]));
+    }
+
+    private Segment readSegment(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != SEGMENT_MAGIC) throw new IOException("Not an index segment: " + file);
+            int maxDocId = in.readInt();
+            int count = readVarInt(in);
+
+            String[] terms = new String[count];
+            int[][] postings = new int[count][];
+            byte[] previous = new byte[0];
+            for (int i = 0; i < count; i++) {
+                int shared = readVarInt(in);
+                byte[] term = Arrays.copyOf(previous, shared + readVarInt(in));
+                in.readFully(term, shared, term.length - shared);
+                terms[i] = new String(term, StandardCharsets.UTF_8);
+
+                int[] ids = new int[readVarInt(in)];
+                int last = 0;
+                for (int j = 0; j < ids.length; j++) {
+                    last += readVarInt(in);
+                    ids[j] = last;
+                }
+                postings[i] = ids;
+                previous = term;
+            }
+            return new Segment(file, maxDocId, terms, postings);
+        }
+    }
+
+    private int[] postingsOf(String term) {
+        Stream<int[]> fromSegments = segments.stream().map(segment -> segment.lookup(term));
+        List<Integer> buffered = buffer.getOrDefault(term, List.of());
+        return Stream.concat(fromSegments, Stream.of(buffered.stream().mapToInt(Integer::intValue).toArray()))
+                .flatMapToInt(Arrays::stream)
+                .sorted()
+                .distinct()
+                .toArray();
+    }
+
+    private boolean isIndexed(String key, long lastModified) {
+        lock.readLock().lock();
+        try {
+            Integer id = docIds.get(key);
+            return id != null && docs.get(id).lastModified == lastModified;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private boolean isTextFile(String key) {
+        int dot = key.lastIndexOf('.');
+        return dot >= 0 && dot > key.lastIndexOf('/') &&
+                textExtensions.contains(key.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    private static boolean isUnder(String path, String prefix, boolean directory) {
+        if (!directory) return path.equals(prefix);
+        return prefix.isEmpty() || path.startsWith(prefix + "/");
+    }
+
+    private static Set<String> tokenize(String text) {
+        Set<String> terms = new HashSet<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                int length = i - start;
+                if (length >= MIN_TERM_LENGTH && length <= MAX_TERM_LENGTH) {
+                    terms.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                }
+                start = -1;
+            }
+        }
+        return terms;
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) i++;
+            else if (a[i] > b[j]) j++;
+            else {
+                result[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    private static int[] union(int[] a, int[] b) {
+        return Stream.of(a, b).flatMapToInt(Arrays::stream).sorted().distinct().toArray();
+    }
+
+    private static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+    }
+
+    @FunctionalInterface
+    private interface IndexTask {
+        void run() throws IOException;
+    }
+
+    private static class Doc {
+        private String path;
+        private final long lastModified;
+        private boolean persisted; // listed in the document log
+
+        Doc(String path, long lastModified) {
+            this.path = path;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private static class Segment {
+        private final Path file;
+        private final int maxDocId;
+        private final String[] terms; // sorted
+        private final int[][] postings;
+
+        Segment(Path file, int maxDocId, String[] terms, int[][] postings) {
+            this.file = file;
+            this.maxDocId = maxDocId;
+            this.terms = terms;
+            this.postings = postings;
+        }
+
+        int[] lookup(String term) {
+            int index = Arrays.binarySearch(terms, term);
+            return index < 0 ? new int[0] : postings[index];
+        }
+    }
+}
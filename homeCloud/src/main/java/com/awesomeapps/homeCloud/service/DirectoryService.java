@@ -2,27 +2,45 @@ package com.awesomeapps.homeCloud.service;
 
 import com.awesomeapps.homeCloud.utils.Utils;
 import org.jetbrains.annotations.NotNull;
-import org.springframework.beans.factory.annotation.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
 
+/**
+ * Directory operations on the virtual namespace. A directory can exist on several storage volumes at once, so
+ * every operation is applied to each volume where it is present.
+ */
 @Service
 public class DirectoryService {
-    @Value("${homeCloud.root.folder}")
-    private String rootFolder;
+    private static final Logger logger = LoggerFactory.getLogger(DirectoryService.class);
+
+    @Autowired
+    private StorageService storageService;
+
+    @Autowired
+    private IntegrityService integrityService;
+
+    @Autowired
+    private ContentIndexService contentIndexService;
 
     /**
      * Create a directory with name <b>dirName</b> at location <b>storagePath</b>.
      */
     public ResponseEntity<String> createDir(@NotNull String dirName, String storagePath) {
         if (dirName.isEmpty()) return ResponseEntity.badRequest().body("Folder name cannot be empty.");
-        File newDirectory = new File(Utils.getDirPath(rootFolder, storagePath) + dirName);
-        boolean isDirCreated = newDirectory.mkdir();
+        Path parentDir = storageService.resolve(storagePath);
+        boolean isDirCreated = parentDir != null && !storageService.exists(Utils.joinPath(storagePath, dirName)) &&
+                new File(Utils.getDirPath(parentDir.toString(), "") + dirName).mkdir();
         if (isDirCreated) {
             return ResponseEntity.ok("Directory created successfully");
         } else {
@@ -35,18 +53,21 @@ public class DirectoryService {
      * Rename a directory with name <b>oldDirName</b> at location <b>storagePath</b> to <b>newDirName</b>.
      */
     public ResponseEntity<String> renameDir(String newDirName, String oldDirName, String storagePath) {
-        if (new File(Utils.getDirPath(rootFolder, storagePath) + newDirName).exists())
+        if (storageService.exists(Utils.joinPath(storagePath, newDirName)))
             return ResponseEntity.badRequest().body("Error: Directory with the name" +
                     newDirName + "already exists.");
 
-        File dir = new File(Utils.getDirPath(rootFolder, storagePath) + oldDirName);
+        List<Path> dirs = storageService.resolveAll(Utils.joinPath(storagePath, oldDirName));
 
-        if (!dir.isDirectory()) return ResponseEntity.badRequest().body("Error: Not a directory.");
+        if (dirs.isEmpty() || !Files.isDirectory(dirs.get(0)))
+            return ResponseEntity.badRequest().body("Error: Not a directory.");
         else {
-            File newDir = new File(dir.getParent() + File.separator + newDirName);
-            boolean renameSuccess = dir.renameTo(newDir);
-            if (!renameSuccess) return ResponseEntity.badRequest().body("Renaming Failed. Please check the name.");
-            else return ResponseEntity.ok("Folder rename successful from " + oldDirName + " to " + newDirName);
+            try {
+                moveOnEveryVolume(Utils.joinPath(storagePath, oldDirName), Utils.joinPath(storagePath, newDirName));
+            } catch (IOException e) {
+                return ResponseEntity.badRequest().body("Renaming Failed. Please check the name.");
+            }
+            return ResponseEntity.ok("Folder rename successful from " + oldDirName + " to " + newDirName);
         }
     }
 
@@ -55,22 +76,30 @@ public class DirectoryService {
      */
     public ResponseEntity<String> deleteDir(@NotNull String storagePath) {
         if (storagePath.isEmpty()) return ResponseEntity.badRequest().body("Folder name cannot be empty.");
-        Path dir = Paths.get(Utils.getDirPath(rootFolder, storagePath));
+        List<Path> dirs = storageService.resolveAll(storagePath);
+        if (dirs.isEmpty()) return ResponseEntity.badRequest().body("Folder not found: " + storagePath);
         AtomicReference<String> errorMsg = new AtomicReference<>("");
         try {
-            Files.walk(dir).forEach(path -> {
-                boolean deleted = Utils.moveToTrash(path);
-                if (!deleted) errorMsg.set("Could not delete file: " + path.getFileName().toString());
-            });
+            for (Path dir : dirs) {
+                Files.walk(dir).forEach(path -> {
+                    boolean deleted = Utils.moveToTrash(path);
+                    if (!deleted) errorMsg.set("Could not delete file: " + path.getFileName().toString());
+                });
+            }
         } catch (IOException e) {
             return ResponseEntity.badRequest().body(e.getMessage());
+        } finally {
+            // Some files may have stayed behind, let the index drop only what is gone
+            storageService.forgetUnder(storagePath);
+            contentIndexService.directoryChanged(storagePath);
         }
         if (!errorMsg.toString().isEmpty()) return ResponseEntity.badRequest().body(errorMsg.toString());
         return ResponseEntity.ok("All Files in the folder moved to trash successfully.");
     }
 
     /**
-     * Copy a directory with name <b>dirName</b> to <b>destinationDirName</b>.
+     * Copy a directory with name <b>dirName</b> to <b>destinationDirName</b>. Files are hashed while they are
+     * copied, verified against the checksums recorded for the source and placed by the placement policy.
      */
     public ResponseEntity<String> copyDirectory(@NotNull String dirName, String destinationDirName, String storagePath) {
         if (dirName.isEmpty()) return ResponseEntity.badRequest().body("Cannot copy root folder.");
@@ -78,25 +107,35 @@ public class DirectoryService {
         AtomicReference<String> errorMsg;
         errorMsg = new AtomicReference<>("");
 
-        Path sourceDirPath = Paths.get(Utils.getDirPath(rootFolder, storagePath) + dirName);
-        Path destinationDirPath = Paths.get(Utils.getDirPath(rootFolder, destinationDirName) + dirName);
+        List<Path> sourceDirPaths = storageService.resolveAll(Utils.joinPath(storagePath, dirName));
+        if (sourceDirPaths.isEmpty()) return ResponseEntity.badRequest().body("Folder not found: " + dirName);
+        String destinationDir = Utils.joinPath(destinationDirName, dirName);
 
         try {
-            Files.createDirectories(destinationDirPath);
-
-            Files.walk(sourceDirPath)
-                    .forEach(source -> {
-                        Path destination = destinationDirPath.resolve(sourceDirPath.relativize(source));
-                        try {
-                            Files.copy(source, destination);
-                        } catch (IOException e) {
-                            errorMsg.set("Could not copy file: " + source.getFileName().toString());
-                        }
-                    });
+            for (Path sourceDirPath : sourceDirPaths) {
+                Path destinationDirPath = storageService.onSameVolume(sourceDirPath, destinationDir);
+                Files.createDirectories(destinationDirPath);
+
+                try (Stream<Path> sources = Files.walk(sourceDirPath)) {
+                    sources.filter(source -> !Utils.isMetadataFile(source))
+                            .forEach(source -> {
+                                Path destination = destinationDirPath.resolve(sourceDirPath.relativize(source));
+                                try {
+                                    if (Files.isDirectory(source)) Files.createDirectories(destination);
+                                    else copyFile(source, destination);
+                                } catch (IOException e) {
+                                    errorMsg.set("Could not copy file: " + source.getFileName().toString());
+                                }
+                            });
+                }
+            }
         } catch (IOException e) {
             return ResponseEntity.badRequest().body("Internal server error copying: " + e.getMessage());
+        } finally {
+            contentIndexService.directoryChanged(destinationDir);
         }
 
+        if (!errorMsg.get().isEmpty()) return ResponseEntity.badRequest().body(errorMsg.get());
         return ResponseEntity.ok("Folder copied successfully.");
     }
 
@@ -105,17 +144,73 @@ public class DirectoryService {
      */
     public ResponseEntity<String> moveDirectory(@NotNull String sourceDirName, String destinationDirName) {
         if (sourceDirName.isEmpty()) return ResponseEntity.badRequest().body("Cannot move root folder.");
-        Path sourceDirPath = Paths.get(Utils.getDirPath(rootFolder, sourceDirName));
-        Path targetDirPath = Paths.get(Utils.getDirPath(rootFolder, destinationDirName) + sourceDirName);
+        String targetDir = Utils.joinPath(StorageService.normalize(destinationDirName), sourceDirName);
 
         try {
-            Files.move(sourceDirPath, targetDirPath, StandardCopyOption.ATOMIC_MOVE);
+            moveOnEveryVolume(sourceDirName, targetDir);
         } catch (FileAlreadyExistsException ex) {
-            ResponseEntity.badRequest().body("File/Folder with same name already exists at destination: " +
+            return ResponseEntity.badRequest().body("File/Folder with same name already exists at destination: " +
                     destinationDirName);
         } catch (IOException ex) {
-            ResponseEntity.badRequest().body("Cannot move root folder.");
+            return ResponseEntity.badRequest().body("Cannot move root folder.");
         }
         return ResponseEntity.ok("Folder moved successfully.");
     }
+
+    /**
+     * Move the directory <b>source</b> to <b>target</b> on every volume where it exists. Every target is resolved
+     * before anything moves, and if a volume still fails the ones already moved are moved back, so the directory
+     * never ends up split between both paths.
+     */
+    private void moveOnEveryVolume(String source, String target) throws IOException {
+        List<Path> sourceDirPaths = storageService.resolveAll(source);
+        if (sourceDirPaths.isEmpty()) throw new NoSuchFileException(source);
+        if (storageService.exists(target)) throw new FileAlreadyExistsException(target);
+
+        List<Path> targetDirPaths = new ArrayList<>(sourceDirPaths.size());
+        for (Path sourceDirPath : sourceDirPaths) {
+            targetDirPaths.add(storageService.onSameVolume(sourceDirPath, target));
+        }
+
+        int moved = 0;
+        try {
+            for (; moved < sourceDirPaths.size(); moved++) {
+                Files.move(sourceDirPaths.get(moved), targetDirPaths.get(moved), StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (IOException e) {
+            while (moved > 0) {
+                try {
+                    Files.move(targetDirPaths.get(moved - 1), sourceDirPaths.get(moved - 1),
+                            StandardCopyOption.ATOMIC_MOVE);
+                    moved--;
+                } catch (IOException rollback) {
+                    logger.error("Could not move {} back to {}, the folder is now split between both paths: {}",
+                            targetDirPaths.get(moved - 1), sourceDirPaths.get(moved - 1), rollback.getMessage());
+                    break;
+                }
+            }
+            throw e;
+        } finally {
+            // Tell the index what actually moved
+            storageService.forgetUnder(source);
+            if (moved == sourceDirPaths.size()) {
+                contentIndexService.directoryMoved(source, target);
+            } else if (moved > 0) {
+                contentIndexService.directoryChanged(source);
+                contentIndexService.directoryChanged(target);
+            }
+        }
+    }
+
+    /**
+     * Copy a single file of a directory copy to the volume picked by the placement policy.
+     */
+    private void copyFile(Path source, Path destination) throws IOException {
+        String destinationDir = storageService.toVirtualPath(destination.getParent());
+        String fileName = destination.getFileName().toString();
+        if (storageService.exists(Utils.joinPath(destinationDir, fileName)))
+            throw new FileAlreadyExistsException(destination.toString());
+
+        integrityService.copy(source, storageService.resolveForWrite(destinationDir, fileName, Files.size(source)));
+    }
 }
@@ -1,6 +1,9 @@
 package com.awesomeapps.homeCloud.service;
 
+import com.awesomeapps.homeCloud.models.FileChecksum;
 import com.awesomeapps.homeCloud.models.FileDto;
+import com.awesomeapps.homeCloud.models.FileType;
+import com.awesomeapps.homeCloud.utils.FileListingEncoder;
 import com.awesomeapps.homeCloud.utils.Utils;
 import org.jetbrains.annotations.NotNull;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -16,61 +19,100 @@ import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.*;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 @Service
 public class FileService {
 
-    @Value("${homeCloud.root.folder}")
-    private String rootFolder;
+    @Autowired
+    private StorageService storageService;
 
     @Autowired
     private DirectoryService directoryService;
 
+    @Autowired
+    private IntegrityService integrityService;
+
+    @Autowired
+    private ContentIndexService contentIndexService;
+
+    @Value("${homeCloud.index.maxResults}")
+    private int maxSearchResults;
+
     /**
      * Upload a <b>file</b> at <b>storagePath</b> and if a file with same name exists at the location,
-     * add a number to the file name and then add the file at the location.
+     * add a number to the file name and then add the file at the location. The file is hashed while it is
+     * written and its checksum is returned in the <i>Repr-Digest</i> header.
      */
     public ResponseEntity<String> uploadFile(@NotNull MultipartFile file, String storagePath) {
-        // Setting up the path of the file
-        Path filePath = Paths.get(rootFolder, storagePath, file.getOriginalFilename());
-
         try {
-            // Check if the file already exists and resolve naming conflicts
-            filePath = resolveNamingConflict(filePath);
+            // Setting up the path of the file under a free name on the volume picked by the placement policy
+            Path filePath = reserveUpload(storagePath, file.getOriginalFilename(), file.getSize());
 
-            // Copy the file to the target location
-            Files.copy(file.getInputStream(), filePath);
+            // Copy the file to the target location, recording its checksum on the way
+            FileChecksum checksum;
+            try (InputStream in = file.getInputStream()) {
+                checksum = integrityService.copyWithChecksum(in, filePath, StandardOpenOption.CREATE_NEW);
+            }
+            contentIndexService.fileChanged(storageService.toVirtualPath(filePath));
 
-            return ResponseEntity.ok("Upload Successful");
+            return ResponseEntity.ok()
+                    .headers(integrityService.digestHeaders(checksum))
+                    .body("Upload Successful");
+        } catch (VolumeBusyException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(e.getMessage());
         } catch (IOException e) {
             e.printStackTrace();
             return ResponseEntity.badRequest().body("Error in uploading file: " + e.getMessage());
         }
     }
 
+    /**
+     * Get the path a new file <b>fileName</b> of <b>size</b> bytes is written to at <b>storagePath</b>. If a file
+     * with the same name exists at the location, a number is added to the name.
+     */
+    public Path reserveUpload(String storagePath, @NotNull String fileName, long size) throws IOException {
+        // Check if the file already exists and resolve naming conflicts
+        String freeName = resolveNamingConflict(storagePath, fileName);
+        return storageService.resolveForWrite(storagePath, freeName, size);
+    }
+
+    /**
+     * Record the <b>checksum</b> computed while uploading <b>filePath</b> and add the file to the content index.
+     */
+    public void completeUpload(Path filePath, FileChecksum checksum) throws IOException {
+        integrityService.storeChecksum(filePath, checksum);
+        contentIndexService.fileChanged(storageService.toVirtualPath(filePath));
+    }
+
     /**
      * Get a file to view using <b>fileName</b> at <b>storagePath</b>.
      */
     public ResponseEntity<Resource> getFile(String fileName, String storagePath) throws IOException {
-        // Construct the base directory path
-        String dirPath = Utils.getDirPath(rootFolder, storagePath);
-
-        // Construct the path for the file
-        Path filePath = Paths.get(dirPath, fileName);
+        // Construct the path for the file on the volume holding it
+        Path filePath = storageService.resolve(Utils.joinPath(storagePath, fileName));
+        if (filePath == null) return ResponseEntity.badRequest().body(null);
 
         if (Files.exists(filePath)) {
-            ByteArrayResource resource = new ByteArrayResource(Files.readAllBytes(filePath));
+            ByteArrayResource resource;
+            try (InputStream in = storageService.openInputStream(filePath)) {
+                resource = new ByteArrayResource(in.readAllBytes());
+            }
             return ResponseEntity.ok()
                     .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"")
+                    .headers(integrityService.digestHeaders(integrityService.readChecksum(filePath)))
                     .body(resource);
         } else {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null);
@@ -79,52 +121,49 @@ public class FileService {
 
     /**
      * Get the list of all the files at as a <b>FileDto</b> which contains file information <i>like name, type, size
-     * and creationDate</i>, located at <b>storagePath</b>.
+     * and creationDate</i>, located at <b>storagePath</b>. The listing is merged from every storage volume.
      */
-    public ResponseEntity<List<FileDto>> listFiles(String storagePath) throws IOException {
-        List<FileDto> fileList = new ArrayList<>();
-        List<File> filesAndDirs = listFilesInDirectory(rootFolder + File.separator + storagePath);
-
-        for (File file : filesAndDirs) {
-            long size = file.length();
-            String creationDate = Files.getLastModifiedTime(file.toPath()).toString();
-
-            fileList.add(new FileDto(file.getName(), file.isFile() ? "file" : "directory", size, creationDate));
-        }
-
-        return ResponseEntity.ok(fileList);
+    public ResponseEntity<List<FileDto>> listFiles(String storagePath, boolean epochTimestamps) throws IOException {
+        return ResponseEntity.ok(collectFiles(storagePath, epochTimestamps));
     }
 
     /**
-     * Download a file with <b>filePath</b>.
+     * Get the list of files at location <b>storagePath</b> in the binary listing format, optionally with
+     * <b>prefixCompression</b> of the names.
      */
-    public ResponseEntity<InputStreamResource> downloadFile(String filePath) throws FileNotFoundException {
-        // Validate and sanitize the filePath to prevent directory traversal attacks
-        Path sanitizedPath = Paths.get(rootFolder).resolve(filePath).normalize();
+    public ResponseEntity<byte[]> listFilesBinary(String storagePath, boolean prefixCompression) throws IOException {
+        byte[] listing = FileListingEncoder.encode(collectFiles(storagePath, true), prefixCompression);
 
-        // Check if the path is outside the intended directory
-        if (!sanitizedPath.startsWith(Paths.get(rootFolder))) {
-            return ResponseEntity.badRequest().body(null);
-        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(FileListingEncoder.MEDIA_TYPE))
+                .contentLength(listing.length)
+                .body(listing);
+    }
 
-        File file = sanitizedPath.toFile();
+    private List<FileDto> collectFiles(String storagePath, boolean epochTimestamps) throws IOException {
+        Map<String, FileDto> fileList = new LinkedHashMap<>();
 
-        if (!file.exists() || !file.isFile()) {
-            return ResponseEntity.notFound().build();
-        }
+        for (Path dirPath : storageService.resolveAll(storagePath)) {
+            List<File> filesAndDirs = listFilesInDirectory(dirPath.toString());
 
-        FileInputStream fileInputStream = new FileInputStream(file);
-        InputStreamResource resource = new InputStreamResource(fileInputStream);
+            for (File file : filesAndDirs) {
+                if (Utils.isMetadataFile(file.toPath())) continue;
+                // A directory present on several volumes is listed once
+                if (fileList.containsKey(file.getName())) continue;
 
-        HttpHeaders headers = new HttpHeaders();
-        headers.add(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + file.getName());
-        headers.add(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_OCTET_STREAM_VALUE);
+                // One stat per entry for the type, size and date
+                BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+                FileType type = attributes.isDirectory() ? FileType.DIRECTORY : FileType.FILE;
+                FileTime lastModified = attributes.lastModifiedTime();
 
-        return ResponseEntity.ok()
-                .headers(headers)
-                .contentLength(file.length())
-                .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                .body(resource);
+                FileDto fileDto = new FileDto(file.getName(), type.getLabel(), attributes.size(),
+                        epochTimestamps ? null : lastModified.toString());
+                if (epochTimestamps) fileDto.setCreationTimestamp(lastModified.toMillis());
+                fileList.put(file.getName(), fileDto);
+            }
+        }
+
+        return new ArrayList<>(fileList.values());
     }
 
     /**
@@ -136,10 +175,10 @@ public class FileService {
 
         for (String filePath : filePaths) {
             // Validate and sanitize the filePath to prevent directory traversal attacks
-            Path sanitizedPath = Paths.get(rootFolder).resolve(filePath).normalize();
+            Path sanitizedPath = storageService.resolve(filePath);
 
             // Check if the path is outside the intended directory
-            if (!sanitizedPath.startsWith(Paths.get(rootFolder))) {
+            if (sanitizedPath == null) {
                 return ResponseEntity.badRequest().body(null);
             }
 
@@ -149,19 +188,19 @@ public class FileService {
                 return ResponseEntity.notFound().build();
             }
 
-            // Add file to ZIP
-            FileInputStream fis = new FileInputStream(file);
-            ZipEntry zipEntry = new ZipEntry(file.getName());
-            zos.putNextEntry(zipEntry);
+            // Add file to ZIP, the stream holds an I/O permit of its volume until it is closed
+            try (InputStream fis = storageService.openInputStream(sanitizedPath)) {
+                ZipEntry zipEntry = new ZipEntry(file.getName());
+                zos.putNextEntry(zipEntry);
 
-            byte[] buffer = new byte[1024];
-            int len;
-            while ((len = fis.read(buffer)) > 0) {
-                zos.write(buffer, 0, len);
-            }
+                byte[] buffer = new byte[1024];
+                int len;
+                while ((len = fis.read(buffer)) > 0) {
+                    zos.write(buffer, 0, len);
+                }
 
-            zos.closeEntry();
-            fis.close();
+                zos.closeEntry();
+            }
         }
 
         zos.close();
@@ -187,26 +226,28 @@ public class FileService {
      */
     public ResponseEntity<String> renameFile(String newFileName, String oldFileName, String storagePath) {
 
-        // Construct the directory path
-        String dirPath = Utils.getDirPath(rootFolder, storagePath);
-
-        // Setting up the paths of the old and new files
-        Path oldFilePath = Paths.get(dirPath, oldFileName);
-        Path newFilePath = Paths.get(dirPath, newFileName);
+        // Setting up the virtual paths of the old and new files
+        String oldFile = Utils.joinPath(storagePath, oldFileName);
+        String newFile = Utils.joinPath(storagePath, newFileName);
 
         try {
             // Check if the old file exists
-            if (!Files.exists(oldFilePath)) {
+            Path oldFilePath = storageService.resolve(oldFile);
+            if (oldFilePath == null || !Files.exists(oldFilePath)) {
                 return ResponseEntity.badRequest().body("Error: Old file not found");
             }
 
             // Check if a file with the new name already exists
-            if (Files.exists(newFilePath)) {
+            if (storageService.exists(newFile)) {
                 return ResponseEntity.badRequest().body("Error: A file with the new name already exists");
             }
 
-            // Renaming the file
-            Files.move(oldFilePath, newFilePath);
+            // Renaming the file, it stays on the same volume
+            Path newFilePath = storageService.onSameVolume(oldFilePath, newFile);
+            integrityService.move(oldFilePath, newFilePath);
+            storageService.forget(oldFile);
+            storageService.record(newFile, newFilePath);
+            contentIndexService.fileMoved(oldFile, newFile);
 
             return ResponseEntity.ok("File renamed successfully");
         } catch (IOException e) {
@@ -236,20 +277,17 @@ public class FileService {
      * Delete file(s) with names in <b>fileNames</b> at location <b>storagePath</b>.
      */
     public ResponseEntity<String> deleteFiles(@NotNull List<String> fileNames, String storagePath) {
-        // Construct the directory path
-        String dirPath = Utils.getDirPath(rootFolder, storagePath);
-
         StringBuilder responseMessage = new StringBuilder();
         boolean allFilesDeleted = true;
 
         for (String fileName : fileNames) {
             // Setting up the path of the file to be moved to trash
-            Path filePath = Paths.get(dirPath, fileName);
+            String file = Utils.joinPath(storagePath, fileName);
+            Path filePath = storageService.resolve(file);
 
             // Check if the path is a directory
-            if (Files.isDirectory(filePath)) {
-                ResponseEntity<String> response = directoryService.deleteDir(
-                        storagePath + File.separator + fileName);
+            if (filePath != null && Files.isDirectory(filePath)) {
+                ResponseEntity<String> response = directoryService.deleteDir(file);
                 if (response.getStatusCode().is2xxSuccessful()) {
                     responseMessage.append("Directory ")
                             .append(fileName)
@@ -261,7 +299,10 @@ public class FileService {
                 }
             } else {
                 // Move the file to trash
-                if (Utils.moveToTrash(filePath)) {
+                if (filePath != null && Utils.moveToTrash(filePath)) {
+                    forgetChecksum(filePath);
+                    storageService.forget(file);
+                    contentIndexService.fileRemoved(file);
                     responseMessage.append("File ").append(fileName)
                             .append(" moved to trash successfully.\n");
                 } else {
@@ -284,19 +325,15 @@ public class FileService {
      */
     public ResponseEntity<String> copyFiles(
             @NotNull List<String> fileNames, String destinationDirName, String storagePath) {
-        // Construct the base directory paths
-        String dirPath = Utils.getDirPath(rootFolder, storagePath);
-        String destinationPath = Utils.getDirPath(rootFolder, destinationDirName);
-
         StringBuilder responseMessage = new StringBuilder();
         boolean allFilesCopied = true;
+        boolean volumeBusy = false;
 
         for (String fileName : fileNames) {
-            // Construct the path for the file or directory
-            Path sourcePath = Paths.get(dirPath, fileName);
-            Path destinationFilePath = Paths.get(destinationPath, fileName);
-
             try {
+                // Construct the path for the file or directory
+                Path sourcePath = storageService.resolveExisting(Utils.joinPath(storagePath, fileName));
+
                 // Check if the path is a directory
                 if (Files.isDirectory(sourcePath)) {
                     // Copy the directory
@@ -311,14 +348,19 @@ public class FileService {
                         allFilesCopied = false;
                     }
                 } else {
-                    // Copy the file
-                    Files.copy(sourcePath, destinationFilePath, StandardCopyOption.REPLACE_EXISTING);
+                    // Copy the file to the volume picked by the placement policy, verifying it against the
+                    // checksum of the source
+                    Path destinationFilePath = storageService.resolveForWrite(
+                            destinationDirName, fileName, Files.size(sourcePath));
+                    integrityService.copy(sourcePath, destinationFilePath);
+                    contentIndexService.fileChanged(Utils.joinPath(destinationDirName, fileName));
                     responseMessage.append("File ")
                             .append(fileName)
                             .append(" copied successfully.\n");
                 }
             } catch (IOException e) {
-                e.printStackTrace();
+                if (e instanceof VolumeBusyException) volumeBusy = true;
+                else e.printStackTrace();
                 responseMessage.append("Error in copying ")
                         .append(fileName)
                         .append(": ")
@@ -330,6 +372,8 @@ public class FileService {
 
         if (allFilesCopied) {
             return ResponseEntity.ok(responseMessage.toString());
+        } else if (volumeBusy) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(responseMessage.toString());
         } else {
             return ResponseEntity.badRequest().body(responseMessage.toString());
         }
@@ -340,19 +384,17 @@ public class FileService {
      */
     public ResponseEntity<String> moveFiles(
             @NotNull List<String> sourceFileNames, String destinationDirName, String storagePath) {
-        // Construct the base directory paths
-        String sourceDirPath = Utils.getDirPath(rootFolder, storagePath);
-        String destinationPath = Utils.getDirPath(rootFolder, destinationDirName);
-
         StringBuilder responseMessage = new StringBuilder();
         boolean allFilesMoved = true;
 
         for (String fileName : sourceFileNames) {
-            // Construct the path for the file or directory
-            Path sourcePath = Paths.get(sourceDirPath, fileName);
-            Path destinationFilePath = Paths.get(destinationPath, fileName);
+            // Construct the virtual paths for the file or directory
+            String source = Utils.joinPath(storagePath, fileName);
+            String destination = Utils.joinPath(destinationDirName, fileName);
 
             try {
+                Path sourcePath = storageService.resolveExisting(source);
+
                 // Check if the path is a directory
                 if (Files.isDirectory(sourcePath)) {
                     // Use the moveDirectory method from fileService to move the directory
@@ -364,8 +406,13 @@ public class FileService {
                         allFilesMoved = false;
                     }
                 } else {
-                    // Move the file
-                    Files.move(sourcePath, destinationFilePath);
+                    // Move the file, it stays on the same volume
+                    if (storageService.exists(destination)) throw new FileAlreadyExistsException(destination);
+                    Path destinationFilePath = storageService.onSameVolume(sourcePath, destination);
+                    integrityService.move(sourcePath, destinationFilePath);
+                    storageService.forget(source);
+                    storageService.record(destination, destinationFilePath);
+                    contentIndexService.fileMoved(source, destination);
                     responseMessage.append("File ").append(fileName).append(" moved successfully.\n");
                 }
             } catch (IOException e) {
@@ -383,18 +430,38 @@ public class FileService {
 
     }
 
-    private Path resolveNamingConflict(@NotNull Path filePath) throws IOException {
-        int count = 1;
-        String originalFileName = filePath.getFileName().toString();
-        String baseName = originalFileName.substring(0, originalFileName.lastIndexOf('.'));
-        String extension = originalFileName.substring(originalFileName.lastIndexOf('.'));
+    /**
+     * Find the files under the root whose contents contain every word of <b>query</b>.
+     */
+    public ResponseEntity<List<String>> searchContent(@NotNull String query, int limit) {
+        if (!contentIndexService.isEnabled()) return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        if (query.isBlank() || limit < 1) return ResponseEntity.badRequest().build();
+
+        return ResponseEntity.ok(contentIndexService.search(query, Math.min(limit, maxSearchResults)));
+    }
+
+    private void forgetChecksum(Path filePath) {
+        try {
+            integrityService.forget(filePath);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
-        while (Files.exists(filePath)) {
-            filePath = filePath.getParent().resolve(baseName + "(" + count + ")" + extension);
+    private String resolveNamingConflict(String storagePath, @NotNull String originalFileName) {
+        int count = 1;
+        String fileName = originalFileName;
+        int dot = originalFileName.lastIndexOf('.');
+        String baseName = dot < 0 ? originalFileName : originalFileName.substring(0, dot);
+        String extension = dot < 0 ? "" : originalFileName.substring(dot);
+
+        // The name has to be free on every volume, not only the one the file ends up on
+        while (storageService.exists(Utils.joinPath(storagePath, fileName))) {
+            fileName = baseName + "(" + count + ")" + extension;
             count++;
         }
 
-        return filePath;
+        return fileName;
     }
 
     private @NotNull List<File> listFilesInDirectory(String directoryPath) {
@@ -0,0 +1,473 @@
+package com.awesomeapps.homeCloud.service;
+
+import com.awesomeapps.homeCloud.models.FileChecksum;
+import com.awesomeapps.homeCloud.utils.ChecksumAccumulator;
+import com.awesomeapps.homeCloud.utils.Utils;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+@Service
+public class IntegrityService {
+    /**
+     * Per-directory index used to keep checksums when the file system has no extended attributes.
+     */
+    public static final String SIDECAR_FILE_NAME = Utils.METADATA_PREFIX + ".checksums";
+
+    private static final String XATTR_NAME = "homeCloud.checksum";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int SIDECAR_CACHE_SIZE = 1024;
+
+    private static final Logger logger = LoggerFactory.getLogger(IntegrityService.class);
+
+    @Autowired
+    private StorageService storageService;
+
+    @Value("${homeCloud.checksum.store}")
+    private String checksumStore; // xattr or sidecar
+
+    @Value("${homeCloud.scrub.enabled}")
+    private boolean scrubEnabled;
+
+    @Value("${homeCloud.scrub.bytesPerSecond}")
+    private long scrubBytesPerSecond;
+
+    @Value("${homeCloud.scrub.coldAfter}")
+    private Duration scrubColdAfter;
+
+    @Value("${homeCloud.scrub.reverifyAfter}")
+    private Duration scrubReverifyAfter;
+
+    // Updates of one sidecar are serialized on the lock its directory hashes to, unrelated directories and
+    // volumes do not wait on each other
+    private final Object[] sidecarLocks = Stream.generate(Object::new).limit(64).toArray();
+
+    // Sidecar file -> its parsed contents, least recently used first
+    private final Map<Path, Sidecar> sidecars = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Write <b>in</b> to <b>target</b>, hashing the data while it streams, and record the checksum of the
+     * written file.
+     */
+    public FileChecksum copyWithChecksum(InputStream in, Path target, OpenOption... options) throws IOException {
+        FileChecksum checksum = write(in, target, options);
+        storeChecksum(target, checksum);
+        return checksum;
+    }
+
+    /**
+     * Copy the file at <b>source</b> to <b>target</b>, hashing it on the way. If <b>source</b> has a recorded
+     * checksum the copy is verified against it first, and an existing <b>target</b> is only replaced by a copy
+     * that matches.
+     */
+    public FileChecksum copy(Path source, Path target) throws IOException {
+        FileChecksum expected = readChecksum(source);
+
+        // Copying a file onto itself would truncate it before it is read
+        if (Files.exists(target) && Files.isSameFile(source, target)) return expected;
+
+        // The copy is hidden from listings until it is verified and swapped in
+        Path temp = target.resolveSibling(Utils.METADATA_PREFIX + ".copy-" + UUID.randomUUID() + ".tmp");
+        try {
+            FileChecksum checksum;
+            try (InputStream in = storageService.openInputStream(source)) {
+                checksum = write(in, temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            }
+
+            if (expected != null && !expected.sameContentAs(checksum)) {
+                throw new IOException("Checksum mismatch while copying " + source.getFileName() +
+                        ", the source does not match its recorded checksum");
+            }
+
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            storeChecksum(target, checksum);
+            return checksum;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Move a file from <b>source</b> to <b>target</b> and carry its recorded checksum along.
+     */
+    public void move(Path source, Path target, CopyOption... options) throws IOException {
+        FileChecksum checksum = readStoredChecksum(source);
+
+        Files.move(source, target, options);
+
+        if (checksum != null) {
+            forget(source);
+            // Extended attributes usually travel with the file, the sidecar entry never does
+            if (readStoredChecksum(target) == null) writeChecksum(target, checksum);
+        }
+    }
+
+    /**
+     * Drop the sidecar entry of a file that has been deleted or moved away.
+     */
+    public void forget(Path file) throws IOException {
+        String name = file.getFileName().toString();
+        if (Files.exists(file.getParent().resolve(SIDECAR_FILE_NAME))) {
+            updateSidecar(file.getParent(), properties -> properties.remove(name));
+        }
+    }
+
+    /**
+     * Get the recorded checksum of <b>file</b>, or <b>null</b> if it has none or the file has changed since
+     * it was recorded.
+     */
+    public FileChecksum readChecksum(Path file) {
+        try {
+            FileChecksum checksum = readStoredChecksum(file);
+            if (checksum == null) return null;
+
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            if (attributes.size() != checksum.getSize() ||
+                    attributes.lastModifiedTime().toMillis() != checksum.getLastModified()) return null;
+
+            return checksum;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get the <i>Repr-Digest</i> and legacy <i>Digest</i> headers for <b>checksum</b>, empty if there is none.
+     */
+    public HttpHeaders digestHeaders(FileChecksum checksum) {
+        HttpHeaders headers = new HttpHeaders();
+        if (checksum == null) return headers;
+
+        String sha256 = Base64.getEncoder().encodeToString(HexFormat.of().parseHex(checksum.getSha256()));
+        headers.add("Repr-Digest", "sha-256=:" + sha256 + ":");
+        headers.add("Digest", "sha-256=" + sha256);
+        return headers;
+    }
+
+    /**
+     * Re-verify the checksums of cold files in the background, one thread per storage volume. Reads are
+     * throttled to <b>homeCloud.scrub.bytesPerSecond</b> per volume so foreground transfers keep the disks.
+     */
+    @Scheduled(initialDelayString = "${homeCloud.scrub.initialDelay}",
+            fixedDelayString = "${homeCloud.scrub.interval}")
+    public void scrub() {
+        if (!scrubEnabled) return;
+
+        List<Path> roots = storageService.getRoots();
+        ExecutorService executor = Executors.newFixedThreadPool(roots.size());
+        try {
+            List<Future<?>> runs = new ArrayList<>();
+            for (Path root : roots) runs.add(executor.submit(() -> scrubVolume(root)));
+            for (Future<?> run : runs) run.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.warn("Scrubbing failed: {}", e.getCause().getMessage());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void scrubVolume(Path root) {
+        if (!Files.isDirectory(root)) return;
+
+        Throttle throttle = new Throttle(scrubBytesPerSecond);
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.filter(Files::isRegularFile)
+                    .filter(path -> !Utils.isMetadataFile(path))
+                    .forEach(path -> scrubFile(path, throttle));
+        } catch (IOException | UncheckedIOException e) {
+            logger.warn("Scrubbing {} stopped: {}", root, e.getMessage());
+        }
+    }
+
+    private void scrubFile(Path file, Throttle throttle) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            long lastModified = attributes.lastModifiedTime().toMillis();
+            long now = System.currentTimeMillis();
+
+            // Recently written data is still hot, leave it alone
+            if (now - lastModified < scrubColdAfter.toMillis()) return;
+
+            FileChecksum stored = readStoredChecksum(file);
+            boolean unchanged = stored != null && stored.getSize() == attributes.size() &&
+                    stored.getLastModified() == lastModified;
+            if (unchanged && now - stored.getVerifiedAt() < scrubReverifyAfter.toMillis()) return;
+
+            FileChecksum actual = hash(file, throttle);
+            if (Files.getLastModifiedTime(file).toMillis() != lastModified) return;
+
+            if (!unchanged) {
+                // No checksum yet, or the file was legitimately replaced outside of homeCloud
+                storeChecksum(file, actual);
+            } else if (stored.sameContentAs(actual)) {
+                stored.setVerifiedAt(now);
+                writeChecksum(file, stored);
+            } else {
+                logger.error("Checksum mismatch for {}: recorded sha-256 {} but the data hashes to {}",
+                        file, stored.getSha256(), actual.getSha256());
+            }
+        } catch (IOException e) {
+            logger.warn("Could not scrub {}: {}", file, e.getMessage());
+        }
+    }
+
+    private FileChecksum hash(Path file, Throttle throttle) throws IOException {
+        ChecksumAccumulator accumulator = new ChecksumAccumulator();
+        try (InputStream in = storageService.openBackgroundInputStream(file)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                accumulator.update(buffer, 0, len);
+                throttle.acquire(len);
+            }
+        }
+        return accumulator.finish();
+    }
+
+    private FileChecksum write(InputStream in, Path target, OpenOption... options) throws IOException {
+        ChecksumAccumulator accumulator = new ChecksumAccumulator();
+        try (OutputStream out = storageService.openOutputStream(target, options)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                accumulator.update(buffer, 0, len);
+                out.write(buffer, 0, len);
+            }
+        }
+        return accumulator.finish();
+    }
+
+    /**
+     * Record a freshly computed <b>checksum</b> for <b>file</b> as verified now.
+     */
+    public void storeChecksum(Path file, FileChecksum checksum) throws IOException {
+        checksum.setLastModified(Files.getLastModifiedTime(file).toMillis());
+        checksum.setVerifiedAt(System.currentTimeMillis());
+        writeChecksum(file, checksum);
+    }
+
+    private void writeChecksum(Path file, FileChecksum checksum) throws IOException {
+        if (useXattr() && writeXattr(file, encode(checksum))) return;
+
+        String name = file.getFileName().toString();
+        updateSidecar(file.getParent(), properties -> properties.setProperty(name, encode(checksum)));
+    }
+
+    private FileChecksum readStoredChecksum(Path file) throws IOException {
+        if (useXattr()) {
+            String value = readXattr(file);
+            if (value != null) return decode(value);
+        }
+        return decode(readSidecar(file.getParent()).getProperty(file.getFileName().toString()));
+    }
+
+    private boolean useXattr() {
+        return "xattr".equalsIgnoreCase(checksumStore);
+    }
+
+    private String readXattr(Path file) {
+        UserDefinedFileAttributeView view = Files.getFileAttributeView(file, UserDefinedFileAttributeView.class);
+        if (view == null) return null;
+
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(view.size(XATTR_NAME));
+            view.read(XATTR_NAME, buffer);
+            buffer.flip();
+            return StandardCharsets.US_ASCII.decode(buffer).toString();
+        } catch (IOException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    private boolean writeXattr(Path file, String value) {
+        UserDefinedFileAttributeView view = Files.getFileAttributeView(file, UserDefinedFileAttributeView.class);
+        if (view == null) return false;
+
+        try {
+            FileTime lastModified = Files.getLastModifiedTime(file);
+            view.write(XATTR_NAME, StandardCharsets.US_ASCII.encode(value));
+            // Some file systems (e.g. NTFS alternate data streams) touch the modification time on write
+            Files.setLastModifiedTime(file, lastModified);
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Get the sidecar index of <b>dir</b>. The parsed index is reused while the file keeps its modification time
+     * and size, callers must not modify it.
+     */
+    private Properties readSidecar(Path dir) throws IOException {
+        Path sidecar = dir.resolve(SIDECAR_FILE_NAME);
+        Properties properties = cachedSidecar(sidecar);
+        if (properties != null) return properties;
+
+        // Parse under the lock of the directory so a concurrent update cannot be cached over by older contents
+        synchronized (sidecarLock(dir)) {
+            properties = cachedSidecar(sidecar);
+            if (properties != null) return properties;
+
+            properties = new Properties();
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(sidecar, BasicFileAttributes.class);
+                try (Reader reader = Files.newBufferedReader(sidecar, StandardCharsets.UTF_8)) {
+                    properties.load(reader);
+                }
+                cacheSidecar(sidecar, attributes, properties);
+            } catch (NoSuchFileException e) {
+                return new Properties();
+            }
+            return properties;
+        }
+    }
+
+    private Properties cachedSidecar(Path sidecar) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(sidecar, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return new Properties();
+        }
+        synchronized (sidecars) {
+            Sidecar cached = sidecars.get(sidecar);
+            return cached != null && cached.matches(attributes) ? cached.properties : null;
+        }
+    }
+
+    private void updateSidecar(Path dir, Consumer<Properties> update) throws IOException {
+        synchronized (sidecarLock(dir)) {
+            Properties properties = new Properties();
+            properties.putAll(readSidecar(dir));
+            update.accept(properties);
+
+            Path sidecar = dir.resolve(SIDECAR_FILE_NAME);
+            if (properties.isEmpty()) {
+                Files.deleteIfExists(sidecar);
+                synchronized (sidecars) {
+                    sidecars.remove(sidecar);
+                }
+                return;
+            }
+
+            // Write next to the index and swap it in, so a crash never leaves a half written index
+            Path temp = dir.resolve(SIDECAR_FILE_NAME + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                properties.store(writer, null);
+            }
+            Files.move(temp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            cacheSidecar(sidecar, Files.readAttributes(sidecar, BasicFileAttributes.class), properties);
+        }
+    }
+
+    private Object sidecarLock(Path dir) {
+        return sidecarLocks[Math.floorMod(dir.hashCode(), sidecarLocks.length)];
+    }
+
+    private void cacheSidecar(Path sidecar, BasicFileAttributes attributes, Properties properties) {
+        synchronized (sidecars) {
+            sidecars.put(sidecar, new Sidecar(attributes, properties));
+            Iterator<Sidecar> eldest = sidecars.values().iterator();
+            while (sidecars.size() > SIDECAR_CACHE_SIZE && eldest.hasNext()) {
+                eldest.next();
+                eldest.remove();
+            }
+        }
+    }
+
+    private static @NotNull String encode(@NotNull FileChecksum checksum) {
+        return checksum.getSha256() + "," + Long.toHexString(checksum.getCrc32c()) + "," + checksum.getSize() +
+                "," + checksum.getLastModified() + "," + checksum.getVerifiedAt();
+    }
+
+    private static FileChecksum decode(String value) {
+        if (value == null) return null;
+
+        String[] parts = value.split(",");
+        if (parts.length != 5) return null;
+
+        try {
+            FileChecksum checksum = new FileChecksum(parts[0], Long.parseLong(parts[1], 16), Long.parseLong(parts[2]));
+            checksum.setLastModified(Long.parseLong(parts[3]));
+            checksum.setVerifiedAt(Long.parseLong(parts[4]));
+            return checksum;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static class Sidecar {
+        private final long lastModified;
+        private final long size;
+        private final Properties properties;
+
+        Sidecar(BasicFileAttributes attributes, Properties properties) {
+            this.lastModified = attributes.lastModifiedTime().toMillis();
+            this.size = attributes.size();
+            this.properties = properties;
+        }
+
+        boolean matches(BasicFileAttributes attributes) {
+            return attributes.lastModifiedTime().toMillis() == lastModified && attributes.size() == size;
+        }
+    }
+
+    /**
+     * Keeps a background reader at or below a fixed number of bytes per second.
+     */
+    private static class Throttle {
+        private final long bytesPerSecond;
+        private final long start = System.nanoTime();
+        private long bytes;
+
+        Throttle(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        void acquire(int length) throws InterruptedIOException {
+            if (bytesPerSecond <= 0) return;
+
+            bytes += length;
+            long aheadNanos = (long) (bytes * 1_000_000_000.0 / bytesPerSecond) - (System.nanoTime() - start);
+            if (aheadNanos <= 0) return;
+
+            try {
+                Thread.sleep(aheadNanos / 1_000_000L, (int) (aheadNanos % 1_000_000L));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Scrub interrupted");
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.awesomeapps.homeCloud.service;
+
+import com.awesomeapps.homeCloud.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * Moves cold files off storage volumes that are filling up onto the volume with the most free space.
+ */
+@Service
+public class RebalanceService {
+
+    private static final Logger logger = LoggerFactory.getLogger(RebalanceService.class);
+
+    @Autowired
+    private StorageService storageService;
+
+    @Autowired
+    private IntegrityService integrityService;
+
+    @Value("${homeCloud.rebalance.enabled}")
+    private boolean rebalanceEnabled;
+
+    @Value("${homeCloud.rebalance.highWatermark}")
+    private double highWatermark;
+
+    @Value("${homeCloud.rebalance.targetWatermark}")
+    private double targetWatermark;
+
+    @Value("${homeCloud.rebalance.minAge}")
+    private Duration minAge;
+
+    /**
+     * Drain every volume used above <b>homeCloud.rebalance.highWatermark</b> down to
+     * <b>homeCloud.rebalance.targetWatermark</b>.
+     */
+    @Scheduled(initialDelayString = "${homeCloud.rebalance.initialDelay}",
+            fixedDelayString = "${homeCloud.rebalance.interval}")
+    public void rebalance() {
+        if (!rebalanceEnabled || storageService.getRoots().size() < 2) return;
+
+        for (Path root : storageService.getRoots()) {
+            if (Files.isDirectory(root) && storageService.getUsedFraction(root) > highWatermark) drain(root);
+        }
+    }
+
+    private void drain(Path root) {
+        try (Stream<Path> paths = Files.walk(root)) {
+            Iterator<Path> files = paths.filter(Files::isRegularFile)
+                    .filter(path -> !Utils.isMetadataFile(path))
+                    .iterator();
+
+            while (files.hasNext() && storageService.getUsedFraction(root) > targetWatermark) {
+                Path source = files.next();
+                try {
+                    relocate(root, source);
+                } catch (IOException e) {
+                    logger.warn("Could not move {} off {}: {}", source, root, e.getMessage());
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            logger.warn("Rebalancing {} stopped: {}", root, e.getMessage());
+        }
+    }
+
+    private void relocate(Path root, Path source) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(source, BasicFileAttributes.class);
+        // Files that were written recently may still be in use
+        if (System.currentTimeMillis() - attributes.lastModifiedTime().toMillis() < minAge.toMillis()) return;
+
+        Path targetRoot = pickTarget(root, attributes.size());
+        if (targetRoot == null) return;
+
+        String virtualPath = storageService.toVirtualPath(source);
+        Path target = targetRoot.resolve(root.relativize(source));
+        if (Files.exists(target)) return;
+
+        // Copy and verify first, the source is only removed once the copy is known to be good
+        Files.createDirectories(target.getParent());
+        integrityService.copy(source, target);
+        storageService.record(virtualPath, target);
+
+        try {
+            Files.delete(source);
+            integrityService.forget(source);
+        } catch (IOException e) {
+            // The source is still in use, keep it and drop the copy
+            storageService.record(virtualPath, source);
+            Files.deleteIfExists(target);
+            integrityService.forget(target);
+            throw e;
+        }
+    }
+
+    /**
+     * Get the root with the most free space that stays below the target watermark after taking
+     * <b>size</b> bytes, on a different disk than <b>root</b>.
+     */
+    private Path pickTarget(Path root, long size) throws IOException {
+        FileStore sourceStore = Files.getFileStore(root);
+
+        return storageService.getRoots().stream()
+                .filter(candidate -> !candidate.equals(root) && Files.isDirectory(candidate))
+                .filter(candidate -> !Objects.equals(fileStoreOf(candidate), sourceStore))
+                .filter(candidate -> usedFractionAfter(candidate, size) < targetWatermark)
+                .max(Comparator.comparingLong(storageService::getUsableSpace))
+                .orElse(null);
+    }
+
+    private double usedFractionAfter(Path root, long size) {
+        long total = root.toFile().getTotalSpace();
+        if (total == 0) return 1;
+        return 1 - (double) (storageService.getUsableSpace(root) - size) / total;
+    }
+
+    private FileStore fileStoreOf(Path root) {
+        try {
+            return Files.getFileStore(root);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
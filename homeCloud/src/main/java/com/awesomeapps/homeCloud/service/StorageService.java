@@ -0,0 +1,384 @@
+package com.awesomeapps.homeCloud.service;
+
+import com.awesomeapps.homeCloud.utils.Utils;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.*;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Maps the virtual namespace seen by clients onto one or more storage volumes. Directories may exist on every
+ * volume, a file lives on exactly one of them.
+ */
+@Service
+public class StorageService {
+
+    @Value("${homeCloud.root.folders}")
+    private String rootFolders; // comma separated
+
+    @Value("${homeCloud.placement.policy}")
+    private String placementPolicy; // free-space or round-robin
+
+    @Value("${homeCloud.volume.maxConcurrentIo}")
+    private int maxConcurrentIo;
+
+    @Value("${homeCloud.volume.ioWaitTimeout}")
+    private Duration ioWaitTimeout;
+
+    private final List<Volume> volumes = new ArrayList<>();
+
+    // Virtual path of a file -> index of the volume holding it
+    private final Map<String, Integer> locations = new ConcurrentHashMap<>();
+
+    private final AtomicInteger nextVolume = new AtomicInteger();
+
+    @PostConstruct
+    void initVolumes() {
+        for (String folder : rootFolders.split(",")) {
+            if (folder.isBlank()) continue;
+            volumes.add(new Volume(Paths.get(folder.trim()).toAbsolutePath().normalize(),
+                    new Semaphore(maxConcurrentIo, true), volumes.size(), maxConcurrentIo));
+        }
+        if (volumes.isEmpty()) throw new IllegalStateException("No storage root set in homeCloud.root.folders");
+    }
+
+    @PreDestroy
+    void stopVolumes() {
+        for (Volume volume : volumes) volume.ioExecutor.shutdownNow();
+    }
+
+    public List<Path> getRoots() {
+        return volumes.stream().map(volume -> volume.root).toList();
+    }
+
+    public Path getPrimaryRoot() {
+        return volumes.get(0).root;
+    }
+
+    /**
+     * Resolve <b>relativePath</b> to the volume that holds it. Falls back to the location on the primary volume
+     * if it does not exist anywhere, and returns <b>null</b> if the path points outside the storage roots.
+     */
+    public Path resolve(String relativePath) {
+        String key = normalize(relativePath);
+
+        Integer index = locations.get(key);
+        if (index != null) {
+            Path path = onVolume(volumes.get(index), key);
+            if (path != null && Files.exists(path)) return path;
+            locations.remove(key);
+        }
+
+        for (int i = 0; i < volumes.size(); i++) {
+            Path path = onVolume(volumes.get(i), key);
+            if (path == null) return null;
+            if (Files.exists(path)) {
+                if (Files.isRegularFile(path)) locations.put(key, i);
+                return path;
+            }
+        }
+
+        return onVolume(volumes.get(0), key);
+    }
+
+    /**
+     * Resolve <b>relativePath</b> to the volume that holds it, failing if it does not exist.
+     */
+    public Path resolveExisting(String relativePath) throws IOException {
+        Path path = resolve(relativePath);
+        if (path == null) throw new AccessDeniedException(relativePath, null, "Outside of the storage root");
+        if (!Files.exists(path)) throw new NoSuchFileException(relativePath);
+        return path;
+    }
+
+    /**
+     * Get the location of <b>relativePath</b> on every volume where it exists.
+     */
+    public List<Path> resolveAll(String relativePath) {
+        String key = normalize(relativePath);
+        List<Path> paths = new ArrayList<>();
+
+        for (Volume volume : volumes) {
+            Path path = onVolume(volume, key);
+            if (path != null && Files.exists(path)) paths.add(path);
+        }
+        return paths;
+    }
+
+    public boolean exists(String relativePath) {
+        return !resolveAll(relativePath).isEmpty();
+    }
+
+    /**
+     * Get the path to write <b>fileName</b> in <b>relativeDir</b> to: its current location if it already exists,
+     * otherwise a volume picked by the placement policy.
+     */
+    public Path resolveForWrite(String relativeDir, String fileName, long size) throws IOException {
+        String key = Utils.joinPath(normalize(relativeDir), fileName);
+        if (exists(key)) return resolve(key);
+
+        if (!exists(relativeDir)) throw new NoSuchFileException(relativeDir);
+
+        Volume volume = chooseVolume(size);
+        Path path = onVolume(volume, key);
+        if (path == null) throw new IOException("Path is outside of the storage root: " + key);
+
+        Files.createDirectories(path.getParent());
+        locations.put(key, volumes.indexOf(volume));
+        return path;
+    }
+
+    /**
+     * Get the location of <b>relativePath</b> on the same volume as <b>onVolume</b>, creating its parent
+     * directories on that volume when the parent exists in the virtual namespace.
+     */
+    public Path onSameVolume(Path onVolume, String relativePath) throws IOException {
+        String key = normalize(relativePath);
+        Path path = onVolume(volumeOf(onVolume), key);
+        if (path == null) throw new IOException("Path is outside of the storage root: " + key);
+
+        Path parent = path.getParent();
+        if (!Files.isDirectory(parent) && exists(getParent(key))) Files.createDirectories(parent);
+        return path;
+    }
+
+    /**
+     * Get the virtual path of a file or directory located on one of the volumes.
+     */
+    public String toVirtualPath(Path path) {
+        return normalize(volumeOf(path).root.relativize(path.toAbsolutePath().normalize()).toString());
+    }
+
+    /**
+     * Record that the file at virtual path <b>relativePath</b> now lives at <b>path</b>.
+     */
+    public void record(String relativePath, Path path) {
+        locations.put(normalize(relativePath), volumes.indexOf(volumeOf(path)));
+    }
+
+    /**
+     * Drop the location of a file that has been deleted or moved away.
+     */
+    public void forget(String relativePath) {
+        locations.remove(normalize(relativePath));
+    }
+
+    /**
+     * Drop the locations of every file under <b>relativeDir</b> after the directory was moved, renamed or deleted.
+     */
+    public void forgetUnder(String relativeDir) {
+        String key = normalize(relativeDir);
+        String prefix = key + "/";
+        locations.keySet().removeIf(path -> key.isEmpty() || path.equals(key) || path.startsWith(prefix));
+    }
+
+    public long getUsableSpace(Path root) {
+        return root.toFile().getUsableSpace();
+    }
+
+    /**
+     * Get the used fraction of the disk holding <b>root</b>, between 0 and 1.
+     */
+    public double getUsedFraction(Path root) {
+        long total = root.toFile().getTotalSpace();
+        if (total == 0) return 0;
+        return 1 - (double) getUsableSpace(root) / total;
+    }
+
+    /**
+     * Open <b>path</b> for reading on a request thread. The stream holds one of the I/O permits of the volume
+     * holding the file until it is closed; if the volume has none left it fails straight away with a
+     * {@link VolumeBusyException} rather than parking the thread behind a slow disk.
+     */
+    public InputStream openInputStream(Path path) throws IOException {
+        return openInputStream(path, Duration.ZERO);
+    }
+
+    /**
+     * Open <b>path</b> for reading from a background task, waiting up to <b>homeCloud.volume.ioWaitTimeout</b>
+     * for an I/O permit of the volume.
+     */
+    public InputStream openBackgroundInputStream(Path path) throws IOException {
+        return openInputStream(path, ioWaitTimeout);
+    }
+
+    /**
+     * Open <b>path</b> for writing on a request thread, holding an I/O permit of the volume like
+     * {@link #openInputStream(Path)}.
+     */
+    public OutputStream openOutputStream(Path path, OpenOption... options) throws IOException {
+        Permit permit = acquire(volumeOf(path).permits, path, Duration.ZERO);
+        OutputStream out;
+        try {
+            out = Files.newOutputStream(path, options);
+        } catch (IOException | RuntimeException e) {
+            permit.release();
+            throw e;
+        }
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(byte @NotNull [] bytes, int offset, int length) throws IOException {
+                out.write(bytes, offset, length);
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    permit.release();
+                }
+            }
+        };
+    }
+
+    /**
+     * Open <b>path</b> as an asynchronous channel. Its reads and writes run on a small pool owned by the volume
+     * holding the file and share the I/O permits of the volume with the streams, so no request thread waits on
+     * the disk.
+     */
+    public AsynchronousFileChannel openAsyncChannel(Path path, OpenOption... options) throws IOException {
+        return AsynchronousFileChannel.open(path, Set.of(options), volumeOf(path).ioExecutor);
+    }
+
+    public static @NotNull String normalize(String relativePath) {
+        String normalized = relativePath == null ? "" : relativePath.replace('\\', '/').replaceAll("/{2,}", "/");
+        while (normalized.startsWith("/")) normalized = normalized.substring(1);
+        while (normalized.endsWith("/")) normalized = normalized.substring(0, normalized.length() - 1);
+        return normalized;
+    }
+
+    private static @NotNull String getParent(String key) {
+        int separator = key.lastIndexOf('/');
+        return separator < 0 ? "" : key.substring(0, separator);
+    }
+
+    /**
+     * Get the location of <b>key</b> on <b>volume</b>, or <b>null</b> if it is outside the root or one of
+     * homeCloud's own bookkeeping files, which clients must not read or overwrite.
+     */
+    private Path onVolume(Volume volume, String key) {
+        Path path = volume.root.resolve(key).normalize();
+        return path.startsWith(volume.root) && !Utils.isMetadataFile(path) ? path : null;
+    }
+
+    private Volume volumeOf(Path path) {
+        Path absolute = path.toAbsolutePath().normalize();
+        return volumes.stream()
+                .filter(volume -> absolute.startsWith(volume.root))
+                .max(Comparator.comparingInt(volume -> volume.root.getNameCount()))
+                .orElseThrow(() -> new IllegalArgumentException("Not on a storage volume: " + path));
+    }
+
+    private Volume chooseVolume(long size) throws IOException {
+        List<Volume> candidates = volumes.stream()
+                .filter(volume -> getUsableSpace(volume.root) > size)
+                .toList();
+        if (candidates.isEmpty()) throw new IOException("No storage volume has room for " + size + " bytes");
+
+        if ("round-robin".equalsIgnoreCase(placementPolicy)) {
+            return candidates.get(Math.floorMod(nextVolume.getAndIncrement(), candidates.size()));
+        }
+        return candidates.stream().max(Comparator.comparingLong(volume -> getUsableSpace(volume.root))).get();
+    }
+
+    private InputStream openInputStream(Path path, Duration wait) throws IOException {
+        Permit permit = acquire(volumeOf(path).permits, path, wait);
+        InputStream in;
+        try {
+            in = Files.newInputStream(path);
+        } catch (IOException | RuntimeException e) {
+            permit.release();
+            throw e;
+        }
+        return new FilterInputStream(in) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    permit.release();
+                }
+            }
+        };
+    }
+
+    private Permit acquire(Semaphore permits, Path path, Duration wait) throws IOException {
+        try {
+            // A fair semaphore would make even a zero timeout queue behind waiting background tasks
+            boolean acquired = wait.isZero() ? permits.tryAcquire()
+                    : permits.tryAcquire(wait.toMillis(), TimeUnit.MILLISECONDS);
+            if (!acquired) {
+                throw new VolumeBusyException("Storage volume is busy, try again later to access " +
+                        path.getFileName());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for storage volume");
+        }
+        return new Permit(permits);
+    }
+
+    /**
+     * An I/O permit held by an open stream, released once however often the stream is closed.
+     */
+    private static class Permit {
+        private final Semaphore permits;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        Permit(Semaphore permits) {
+            this.permits = permits;
+        }
+
+        void release() {
+            if (released.compareAndSet(false, true)) permits.release();
+        }
+    }
+
+    private static class Volume {
+        private final Path root;
+        private final Semaphore permits;
+        private final ThreadPoolExecutor ioExecutor;
+
+        Volume(Path root, Semaphore permits, int index, int ioThreads) {
+            this.root = root;
+            this.permits = permits;
+            AtomicInteger threads = new AtomicInteger();
+            // Every asynchronous operation holds a permit while it runs, just like a stream read or write
+            this.ioExecutor = new ThreadPoolExecutor(ioThreads, ioThreads, 0, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "volume-" + index + "-io-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }) {
+                @Override
+                protected void beforeExecute(Thread thread, Runnable runnable) {
+                    permits.acquireUninterruptibly();
+                }
+
+                @Override
+                protected void afterExecute(Runnable runnable, Throwable throwable) {
+                    permits.release();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.awesomeapps.homeCloud.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a storage volume has no I/O permit left for a request. The request is answered with
+ * <i>503 Service Unavailable</i> so the client can retry, instead of holding a request thread until the disk
+ * catches up.
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class VolumeBusyException extends IOException {
+
+    public VolumeBusyException(String message) {
+        super(message);
+    }
+}
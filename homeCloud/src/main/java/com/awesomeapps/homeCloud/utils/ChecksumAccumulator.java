@@ -0,0 +1,53 @@
+package com.awesomeapps.homeCloud.utils;
+
+import com.awesomeapps.homeCloud.models.FileChecksum;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.zip.CRC32C;
+
+/**
+ * Computes the <b>SHA-256</b> and <b>CRC32C</b> of a byte stream incrementally, so the checksums are ready
+ * as soon as the last chunk has been written without reading the data a second time.
+ */
+public class ChecksumAccumulator {
+    private final MessageDigest sha256;
+    private final CRC32C crc32c = new CRC32C();
+    private long size;
+
+    public ChecksumAccumulator() {
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available on this JVM", e);
+        }
+    }
+
+    public void update(byte[] bytes, int offset, int length) {
+        sha256.update(bytes, offset, length);
+        crc32c.update(bytes, offset, length);
+        size += length;
+    }
+
+    /**
+     * Add the remaining bytes of <b>buffer</b>. The position of <b>buffer</b> is left untouched.
+     */
+    public void update(ByteBuffer buffer) {
+        size += buffer.remaining();
+        sha256.update(buffer.duplicate());
+        crc32c.update(buffer.duplicate());
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Get the checksums of everything added so far. The accumulator must not be used afterwards.
+     */
+    public FileChecksum finish() {
+        return new FileChecksum(HexFormat.of().formatHex(sha256.digest()), crc32c.getValue(), size);
+    }
+}
@@ -0,0 +1,147 @@
+package com.awesomeapps.homeCloud.utils;
+
+import com.awesomeapps.homeCloud.models.FileDto;
+import com.awesomeapps.homeCloud.models.FileType;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes a directory listing in the compact binary format served for <i>application/vnd.homecloud.listing</i>.
+ * <p>
+ * Layout: the magic <b>HCLS</b>, a version byte, a flags byte (bit 0 set when names are prefix compressed) and
+ * the varint entry count. Every entry then has its type code byte, the varint number of leading UTF-8 bytes
+ * shared with the previous name (prefix compressed listings only, which are sorted by name), the varint length
+ * and UTF-8 bytes of the rest of the name, the varint size and the zigzag varint last modified time in epoch
+ * milliseconds.
+ */
+public final class FileListingEncoder {
+    public static final String MEDIA_TYPE = "application/vnd.homecloud.listing";
+    public static final int VERSION = 1;
+    public static final int FLAG_PREFIX_COMPRESSION = 1;
+
+    private static final byte[] MAGIC = {'H', 'C', 'L', 'S'};
+
+    private byte[] buffer;
+    private int position;
+
+    private FileListingEncoder(int capacity) {
+        buffer = new byte[capacity];
+    }
+
+    /**
+     * Encode <b>files</b>, which must have their <i>creationTimestamp</i> set. With <b>prefixCompression</b>
+     * the entries are sorted by name in place and each name only stores what differs from the one before.
+     */
+    public static byte[] encode(List<FileDto> files, boolean prefixCompression) {
+        if (prefixCompression) files.sort((a, b) -> a.getName().compareTo(b.getName()));
+
+        // Most names are short, so this is usually the only allocation besides the returned copy
+        FileListingEncoder encoder = new FileListingEncoder(16 + files.size() * 40);
+        encoder.writeBytes(MAGIC);
+        encoder.writeByte(VERSION);
+        encoder.writeByte(prefixCompression ? FLAG_PREFIX_COMPRESSION : 0);
+        encoder.writeVarint(files.size());
+
+        String previous = "";
+        for (FileDto file : files) {
+            String name = file.getName();
+            int shared = 0;
+            if (prefixCompression) {
+                shared = sharedPrefix(previous, name);
+                previous = name;
+            }
+
+            encoder.writeByte(FileType.fromLabel(file.getType()).getCode());
+            if (prefixCompression) encoder.writeVarint(utf8Length(name, 0, shared));
+            encoder.writeVarint(utf8Length(name, shared, name.length()));
+            encoder.writeUtf8(name, shared);
+            encoder.writeVarint(file.getSize());
+            long timestamp = file.getCreationTimestamp() == null ? 0 : file.getCreationTimestamp();
+            encoder.writeVarint((timestamp << 1) ^ (timestamp >> 63));
+        }
+
+        return Arrays.copyOf(encoder.buffer, encoder.position);
+    }
+
+    /**
+     * Get the number of leading chars <b>a</b> and <b>b</b> have in common, never splitting a surrogate pair. The
+     * prefix ends on a code point boundary, so its UTF-8 bytes are the same in both names too.
+     */
+    private static int sharedPrefix(String a, String b) {
+        int max = Math.min(a.length(), b.length());
+        int shared = 0;
+        while (shared < max && a.charAt(shared) == b.charAt(shared)) shared++;
+        if (shared > 0 && Character.isHighSurrogate(b.charAt(shared - 1))) shared--;
+        return shared;
+    }
+
+    private static int utf8Length(String value, int from, int to) {
+        int length = 0;
+        for (int i = from; i < to; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < to
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private void writeUtf8(String value, int from) {
+        ensureCapacity(utf8Length(value, from, value.length()));
+        for (int i = from; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer[position++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[position++] = (byte) (0xC0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else {
+                buffer[position++] = (byte) (0xE0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private void writeVarint(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    private void writeByte(int value) {
+        ensureCapacity(1);
+        buffer[position++] = (byte) value;
+    }
+
+    private void writeBytes(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (position + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + extra));
+        }
+    }
+}
@@ -7,10 +7,29 @@ import java.io.IOException;
 import java.nio.file.Path;
 
 public class Utils {
+    /**
+     * Name prefix of the files and folders homeCloud keeps next to user content for its own bookkeeping.
+     */
+    public static final String METADATA_PREFIX = ".homeCloud";
+
     public static String getDirPath(String root, String storagePath) {
         return root + File.separator + (storagePath.isEmpty() ? storagePath : storagePath + File.separator);
     }
 
+    public static String joinPath(String dirPath, String name) {
+        return dirPath.isEmpty() ? name : dirPath + "/" + name;
+    }
+
+    /**
+     * Check if <b>path</b> is, or sits directly inside, one of homeCloud's bookkeeping files or folders.
+     */
+    public static boolean isMetadataFile(Path path) {
+        Path fileName = path.getFileName();
+        Path parentName = path.getParent() == null ? null : path.getParent().getFileName();
+        return fileName != null && fileName.toString().startsWith(METADATA_PREFIX) ||
+                parentName != null && parentName.toString().startsWith(METADATA_PREFIX);
+    }
+
     public static boolean moveToTrash(Path filePath) {
         File file = filePath.toFile();
 
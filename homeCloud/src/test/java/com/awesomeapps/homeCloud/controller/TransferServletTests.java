@@ -0,0 +1,282 @@
+package com.awesomeapps.homeCloud.controller;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Random;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Runs the download and streamed upload servlets in the embedded container, over real connections, with a short
+ * idle timeout so stalled transfers end within the test.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+		"homeCloud.transfer.idleTimeout=PT1S",
+		"homeCloud.transfer.bufferSize=8192"
+})
+class TransferServletTests {
+
+	private static final Path root = createRoot();
+
+	@LocalServerPort
+	private int port;
+
+	private final HttpClient client = HttpClient.newHttpClient();
+
+	@DynamicPropertySource
+	static void storage(DynamicPropertyRegistry registry) {
+		registry.add("homeCloud.root.folder", root::toString);
+		registry.add("homeCloud.root.folders", root::toString);
+	}
+
+	@AfterAll
+	static void deleteRoot() throws IOException {
+		FileSystemUtils.deleteRecursively(root);
+	}
+
+	@Test
+	void downloadSendsTheWholeFile() throws Exception {
+		// Not a multiple of the buffer size, so the last read is a partial one
+		byte[] content = randomBytes(100_000);
+		Files.write(root.resolve("download.bin"), content);
+
+		HttpResponse<byte[]> response = client.send(HttpRequest.newBuilder(
+				uri("/file/downloadAFile?filePath=download.bin")).build(), HttpResponse.BodyHandlers.ofByteArray());
+
+		assertEquals(200, response.statusCode());
+		assertEquals(String.valueOf(content.length), response.headers().firstValue("Content-Length").orElse(null));
+		assertArrayEquals(content, response.body());
+	}
+
+	@Test
+	void archiveEntryIsDecompressed() throws Exception {
+		byte[] content = "compress me ".repeat(20_000).getBytes(StandardCharsets.UTF_8);
+		writeZip("entries.zip", content);
+
+		HttpResponse<byte[]> response = client.send(HttpRequest.newBuilder(
+						uri("/archive/downloadEntry?filePath=entries.zip&entryName=docs/big.txt")).build(),
+				HttpResponse.BodyHandlers.ofByteArray());
+
+		assertEquals(200, response.statusCode());
+		assertArrayEquals(content, response.body());
+		assertEquals(404, client.send(HttpRequest.newBuilder(
+						uri("/archive/downloadEntry?filePath=entries.zip&entryName=missing.txt")).build(),
+				HttpResponse.BodyHandlers.discarding()).statusCode());
+	}
+
+	@Test
+	void damagedArchiveEntryDropsTheConnection() throws Exception {
+		byte[] content = "compress me ".repeat(20_000).getBytes(StandardCharsets.UTF_8);
+		byte[] bytes = writeZip("damaged.zip", content);
+		// Damage the CRC-32 in the central header, which starts right after the entry data
+		ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		int central = buffer.getInt(bytes.length - 22 + 16);
+		buffer.putInt(central + 16, buffer.getInt(central + 16) ^ 1);
+		Files.write(root.resolve("damaged.zip"), bytes);
+
+		// The 200 is already out when the mismatch is found, the client only sees the body end short
+		assertThrows(IOException.class, () -> client.send(HttpRequest.newBuilder(
+						uri("/archive/downloadEntry?filePath=damaged.zip&entryName=docs/big.txt")).build(),
+				HttpResponse.BodyHandlers.ofByteArray()));
+	}
+
+	@Test
+	void uploadStoresTheBody() throws Exception {
+		byte[] content = randomBytes(50_000);
+
+		HttpResponse<String> response = client.send(HttpRequest.newBuilder(
+						uri("/file/uploadStream?storagePath=&fileName=upload.bin"))
+				.POST(HttpRequest.BodyPublishers.ofByteArray(content))
+				.build(), HttpResponse.BodyHandlers.ofString());
+
+		assertEquals(200, response.statusCode());
+		assertArrayEquals(content, Files.readAllBytes(root.resolve("upload.bin")));
+	}
+
+	@Test
+	void stalledDownloadIsCutOff() throws Exception {
+		int size = 32 << 20;
+		Files.write(root.resolve("stalled.bin"), randomBytes(size));
+
+		try (Socket socket = new Socket()) {
+			// A small window fills up long before the file is through
+			socket.setReceiveBufferSize(4096);
+			socket.connect(new InetSocketAddress("localhost", port));
+			socket.getOutputStream().write(("GET /file/downloadAFile?filePath=stalled.bin HTTP/1.1\r\n" +
+					"Host: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+			Thread.sleep(3_000);
+
+			socket.setSoTimeout(10_000);
+			long received = drain(socket.getInputStream());
+			assertTrue(received > 0);
+			assertTrue(received < size, "The whole file was sent to a client that read nothing");
+		}
+	}
+
+	@Test
+	void abortedDownloadClosesTheFile() throws Exception {
+		assumeTrue(Files.isDirectory(Paths.get("/proc/self/fd")), "Open files are only listed on Linux");
+		Path file = root.resolve("aborted.bin");
+		Files.write(file, randomBytes(32 << 20));
+
+		try (Socket socket = new Socket()) {
+			socket.setReceiveBufferSize(4096);
+			socket.connect(new InetSocketAddress("localhost", port));
+			socket.getOutputStream().write(("GET /file/downloadAFile?filePath=aborted.bin HTTP/1.1\r\n" +
+					"Host: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+			socket.getInputStream().read(new byte[1024]);
+			assertTrue(isOpen(file));
+		}
+
+		await(() -> !isOpen(file));
+	}
+
+	@Test
+	void stalledUploadIsRemoved() throws Exception {
+		Path file = root.resolve("stalled-upload.bin");
+
+		try (Socket socket = new Socket("localhost", port)) {
+			OutputStream out = socket.getOutputStream();
+			out.write(("POST /file/uploadStream?storagePath=&fileName=stalled-upload.bin HTTP/1.1\r\n" +
+					"Host: localhost\r\nContent-Length: 100000\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+			out.write(randomBytes(1_000));
+			out.flush();
+			await(() -> Files.exists(file));
+
+			// The watchdog ends the upload while the client still holds the connection open
+			socket.setSoTimeout(10_000);
+			String response = readResponse(socket.getInputStream());
+			assertTrue(response.startsWith("HTTP/1.1 400"), response);
+		}
+		assertFalse(Files.exists(file));
+	}
+
+	@Test
+	void abortedUploadIsRemoved() throws Exception {
+		Path file = root.resolve("aborted-upload.bin");
+
+		try (Socket socket = new Socket("localhost", port)) {
+			OutputStream out = socket.getOutputStream();
+			out.write(("POST /file/uploadStream?storagePath=&fileName=aborted-upload.bin HTTP/1.1\r\n" +
+					"Host: localhost\r\nContent-Length: 100000\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+			out.write(randomBytes(1_000));
+			out.flush();
+			await(() -> Files.exists(file));
+		}
+
+		await(() -> !Files.exists(file));
+	}
+
+	private static byte[] writeZip(String name, byte[] content) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+			zip.putNextEntry(new ZipEntry("docs/big.txt"));
+			zip.write(content);
+			zip.closeEntry();
+		}
+		Files.write(root.resolve(name), bytes.toByteArray());
+		return bytes.toByteArray();
+	}
+
+	private URI uri(String pathAndQuery) {
+		return URI.create("http://localhost:" + port + pathAndQuery);
+	}
+
+	/**
+	 * Read until the server closes the connection, and get the number of bytes received. A read that times out
+	 * fails, the server was expected to give up on the transfer.
+	 */
+	private static long drain(InputStream in) throws IOException {
+		long received = 0;
+		byte[] buffer = new byte[65536];
+		try {
+			int read;
+			while ((read = in.read(buffer)) >= 0) received += read;
+		} catch (SocketException e) {
+			// A reset connection ends the transfer just as well
+		}
+		return received;
+	}
+
+	private static String readResponse(InputStream in) {
+		ByteArrayOutputStream response = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		try {
+			int read;
+			while ((read = in.read(buffer)) >= 0) response.write(buffer, 0, read);
+		} catch (IOException e) {
+			// The server may reset the connection as it did not read the whole body
+		}
+		return response.toString(StandardCharsets.US_ASCII);
+	}
+
+	private static boolean isOpen(Path file) {
+		try (Stream<Path> descriptors = Files.list(Paths.get("/proc/self/fd"))) {
+			return descriptors.anyMatch(descriptor -> {
+				try {
+					return Files.readSymbolicLink(descriptor).equals(file);
+				} catch (IOException e) {
+					// Closed while the descriptors were listed
+					return false;
+				}
+			});
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+		while (!condition.getAsBoolean()) {
+			assertTrue(System.nanoTime() < deadline, "Timed out waiting for the transfer");
+			Thread.sleep(50);
+		}
+	}
+
+	private static byte[] randomBytes(int length) {
+		byte[] bytes = new byte[length];
+		new Random(length).nextBytes(bytes);
+		return bytes;
+	}
+
+	private static Path createRoot() {
+		try {
+			return Files.createTempDirectory("homeCloudTransfer").toRealPath();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
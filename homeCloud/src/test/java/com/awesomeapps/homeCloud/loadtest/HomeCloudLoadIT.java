@@ -0,0 +1,70 @@
+package com.awesomeapps.homeCloud.loadtest;
+
+import com.awesomeapps.homeCloud.HomeCloudApplication;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.FileSystemUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * End to end load test over HTTP. Run with <b>mvn -Ploadtest verify</b>, settings are passed as
+ * <i>-Dloadtest.*</i> properties (see {@link LoadTestSettings}). Without <i>loadtest.url</i> an instance is started
+ * on a random port with its storage in temporary directories.
+ */
+class HomeCloudLoadIT {
+
+	@Test
+	void loadTest() throws Exception {
+		LoadTestSettings settings = new LoadTestSettings();
+		String url = System.getProperty("loadtest.url");
+
+		List<Path> roots = new ArrayList<>();
+		ConfigurableApplicationContext context = null;
+		try {
+			if (url == null) {
+				for (int i = 0; i < settings.getVolumes(); i++) roots.add(Files.createTempDirectory("homeCloudLoad"));
+				context = start(roots, settings);
+				url = "http://localhost:" + ((WebServerApplicationContext) context).getWebServer().getPort();
+			}
+
+			LoadGenerator generator = new LoadGenerator(url, settings);
+			generator.seed();
+			LoadReport report = generator.run();
+			report.write(settings.getReportPath());
+			System.out.print(report.summary());
+
+			assertTrue(report.getErrorRate() <= settings.getMaxErrorRate(),
+					"Error rate " + report.getErrorRate() + " is above " + settings.getMaxErrorRate());
+			if (settings.getBaselinePath() != null) {
+				List<String> regressions =
+						report.regressionsAgainst(settings.getBaselinePath(), settings.getMaxRegression());
+				assertTrue(regressions.isEmpty(), "Regressions against the baseline: " + regressions);
+			}
+		} finally {
+			if (context != null) context.close();
+			for (Path root : roots) FileSystemUtils.deleteRecursively(root);
+		}
+	}
+
+	private static ConfigurableApplicationContext start(List<Path> roots, LoadTestSettings settings) {
+		List<String> folders = new ArrayList<>();
+		for (Path root : roots) folders.add(root.toString());
+		int maxFileSize = settings.getLargestFileSize();
+
+		// Command line arguments take precedence over application.properties
+		return new SpringApplicationBuilder(HomeCloudApplication.class).run(
+				"--server.port=0",
+				"--homeCloud.root.folder=" + roots.get(0),
+				"--homeCloud.root.folders=" + String.join(",", folders),
+				"--spring.servlet.multipart.max-file-size=" + maxFileSize,
+				"--spring.servlet.multipart.max-request-size=" + (maxFileSize + 65536));
+	}
+}
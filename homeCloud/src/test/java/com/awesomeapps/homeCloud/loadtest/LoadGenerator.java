@@ -0,0 +1,267 @@
+package com.awesomeapps.homeCloud.loadtest;
+
+import com.awesomeapps.homeCloud.loadtest.LoadTestSettings.Operation;
+import com.awesomeapps.homeCloud.utils.FileListingEncoder;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Drives a mix of listings, downloads, uploads and directory creations against a running homeCloud server from
+ * a fixed number of concurrent clients, and records the latency of every request that succeeds. Failed and timed
+ * out requests are only counted, their latencies would skew the percentiles.
+ */
+public class LoadGenerator {
+    private static final String WORK_DIR = "load";
+    private static final String UPLOAD_DIR = WORK_DIR + "/uploads";
+    private static final String MKDIR_DIR = WORK_DIR + "/dirs";
+
+    private final String baseUrl;
+    private final LoadTestSettings settings;
+    private final HttpClient client;
+    private final Map<Integer, byte[]> payloads = new LinkedHashMap<>();
+    private final Map<Integer, List<String>> seededFiles = new LinkedHashMap<>();
+    private final AtomicLong uniqueNames = new AtomicLong();
+
+    public LoadGenerator(String baseUrl, LoadTestSettings settings) {
+        this.baseUrl = baseUrl;
+        this.settings = settings;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+
+        Random random = new Random(42);
+        for (int size : settings.getFileSizes().keySet()) {
+            byte[] payload = new byte[size];
+            random.nextBytes(payload);
+            payloads.put(size, payload);
+        }
+    }
+
+    /**
+     * Create the working directories and upload the files that downloads are served from.
+     */
+    public void seed() throws IOException, InterruptedException {
+        // The directories may be left over from an earlier run against the same server
+        client.send(post("/dir/create", Map.of("dirName", WORK_DIR, "storagePath", "")), BodyHandlers.discarding());
+        client.send(post("/dir/create", Map.of("dirName", "uploads", "storagePath", WORK_DIR)),
+                BodyHandlers.discarding());
+        client.send(post("/dir/create", Map.of("dirName", "dirs", "storagePath", WORK_DIR)),
+                BodyHandlers.discarding());
+
+        for (int size : payloads.keySet()) {
+            List<String> files = new ArrayList<>();
+            for (int i = 0; i < settings.getSeedFilesPerSize(); i++) {
+                String fileName = "seed-" + size + "-" + i + ".bin";
+                send(upload(WORK_DIR, fileName, payloads.get(size)));
+                files.add(WORK_DIR + "/" + fileName);
+            }
+            seededFiles.put(size, files);
+        }
+    }
+
+    /**
+     * Run the workload for the warmup period and then for the measured period, and report on the latter.
+     */
+    public LoadReport run() throws InterruptedException, ExecutionException {
+        long measureFrom = System.nanoTime() + Duration.ofSeconds(settings.getWarmupSeconds()).toNanos();
+        long end = measureFrom + Duration.ofSeconds(settings.getDurationSeconds()).toNanos();
+
+        ExecutorService clients = Executors.newFixedThreadPool(settings.getConcurrency());
+        try {
+            List<Future<Map<Operation, Samples>>> runs = new ArrayList<>();
+            for (int i = 0; i < settings.getConcurrency(); i++) {
+                runs.add(clients.submit(() -> runClient(measureFrom, end)));
+            }
+
+            Map<Operation, Samples> samples = new EnumMap<>(Operation.class);
+            for (Future<Map<Operation, Samples>> run : runs) {
+                run.get().forEach((operation, clientSamples) ->
+                        samples.computeIfAbsent(operation, o -> new Samples()).addAll(clientSamples));
+            }
+            return new LoadReport(settings, samples, settings.getDurationSeconds());
+        } finally {
+            clients.shutdownNow();
+        }
+    }
+
+    private Map<Operation, Samples> runClient(long measureFrom, long end) throws InterruptedException {
+        Map<Operation, Samples> samples = new EnumMap<>(Operation.class);
+
+        long began;
+        while ((began = System.nanoTime()) < end) {
+            Operation operation = pick(settings.getMix());
+            long bytes;
+            try {
+                bytes = execute(operation);
+            } catch (IOException e) {
+                // Error statuses and timeouts alike
+                if (began >= measureFrom) samples.computeIfAbsent(operation, o -> new Samples()).fail();
+                continue;
+            }
+            long latency = System.nanoTime() - began;
+
+            if (began >= measureFrom) {
+                samples.computeIfAbsent(operation, o -> new Samples()).add(latency, bytes);
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * Execute one request of <b>operation</b> and get the number of payload bytes transferred.
+     */
+    private long execute(Operation operation) throws IOException, InterruptedException {
+        switch (operation) {
+            case LIST:
+                return send(get("/file/listFiles", Map.of("storagePath", WORK_DIR))).body().length;
+            case LIST_BINARY:
+                return send(HttpRequest.newBuilder(uri("/file/listFiles", Map.of("storagePath", WORK_DIR)))
+                        .timeout(settings.getRequestTimeout())
+                        .header("Accept", FileListingEncoder.MEDIA_TYPE)
+                        .GET()
+                        .build()).body().length;
+            case DOWNLOAD:
+                List<String> files = seededFiles.get(pick(settings.getFileSizes()));
+                String filePath = files.get(ThreadLocalRandom.current().nextInt(files.size()));
+                return send(get("/file/downloadAFile", Map.of("filePath", filePath))).body().length;
+            case UPLOAD:
+                byte[] payload = payloads.get(pick(settings.getFileSizes()));
+                send(upload(UPLOAD_DIR, "up-" + uniqueNames.incrementAndGet() + ".bin", payload));
+                return payload.length;
+            case UPLOAD_STREAM:
+                byte[] body = payloads.get(pick(settings.getFileSizes()));
+                send(HttpRequest.newBuilder(uri("/file/uploadStream", Map.of("storagePath", UPLOAD_DIR,
+                                "fileName", "stream-" + uniqueNames.incrementAndGet() + ".bin")))
+                        .timeout(settings.getRequestTimeout())
+                        .header("Content-Type", "application/octet-stream")
+                        .POST(BodyPublishers.ofByteArray(body))
+                        .build());
+                return body.length;
+            case MKDIR:
+                send(post("/dir/create", Map.of("dirName", "dir-" + uniqueNames.incrementAndGet(),
+                        "storagePath", MKDIR_DIR)));
+                return 0;
+            default:
+                throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+    }
+
+    private HttpResponse<byte[]> send(HttpRequest request) throws IOException, InterruptedException {
+        HttpResponse<byte[]> response = client.send(request, BodyHandlers.ofByteArray());
+        if (response.statusCode() / 100 != 2) {
+            throw new IOException(request.method() + " " + request.uri().getPath() + " returned " +
+                    response.statusCode());
+        }
+        return response;
+    }
+
+    private HttpRequest get(String path, Map<String, String> params) {
+        return HttpRequest.newBuilder(uri(path, params)).timeout(settings.getRequestTimeout()).GET().build();
+    }
+
+    private HttpRequest post(String path, Map<String, String> params) {
+        return HttpRequest.newBuilder(uri(path, params))
+                .timeout(settings.getRequestTimeout())
+                .POST(BodyPublishers.noBody())
+                .build();
+    }
+
+    private HttpRequest upload(String storagePath, String fileName, byte[] content) {
+        String boundary = "homeCloudLoad" + ThreadLocalRandom.current().nextLong(Long.MAX_VALUE);
+        String head = "--" + boundary + "\r\n" +
+                "Content-Disposition: form-data; name=\"storagePath\"\r\n\r\n" + storagePath + "\r\n" +
+                "--" + boundary + "\r\n" +
+                "Content-Disposition: form-data; name=\"file\"; filename=\"" + fileName + "\"\r\n" +
+                "Content-Type: application/octet-stream\r\n\r\n";
+        String tail = "\r\n--" + boundary + "--\r\n";
+
+        return HttpRequest.newBuilder(uri("/file/upload", Map.of()))
+                .timeout(settings.getRequestTimeout())
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .POST(BodyPublishers.concat(BodyPublishers.ofString(head), BodyPublishers.ofByteArray(content),
+                        BodyPublishers.ofString(tail)))
+                .build();
+    }
+
+    private URI uri(String path, Map<String, String> params) {
+        String query = params.entrySet().stream()
+                .map(param -> param.getKey() + "=" + URLEncoder.encode(param.getValue(), StandardCharsets.UTF_8))
+                .collect(Collectors.joining("&"));
+        return URI.create(baseUrl + path + (query.isEmpty() ? "" : "?" + query));
+    }
+
+    private static <T> T pick(Map<T, Integer> weights) {
+        int total = weights.values().stream().mapToInt(Integer::intValue).sum();
+        int roll = ThreadLocalRandom.current().nextInt(total);
+        for (Map.Entry<T, Integer> weight : weights.entrySet()) {
+            roll -= weight.getValue();
+            if (roll < 0) return weight.getKey();
+        }
+        throw new IllegalStateException("Empty weights");
+    }
+
+    /**
+     * Latencies in nanoseconds and payload bytes of the successful requests of one operation, and the number of
+     * failed ones.
+     */
+    static class Samples {
+        private long[] latencies = new long[1024];
+        private int count;
+        private int errors;
+        private long bytes;
+
+        void add(long latency, long transferred) {
+            if (count == latencies.length) latencies = Arrays.copyOf(latencies, count * 2);
+            latencies[count++] = latency;
+            bytes += transferred;
+        }
+
+        void fail() {
+            errors++;
+        }
+
+        void addAll(Samples other) {
+            latencies = Arrays.copyOf(latencies, Math.max(latencies.length, count + other.count));
+            System.arraycopy(other.latencies, 0, latencies, count, other.count);
+            count += other.count;
+            errors += other.errors;
+            bytes += other.bytes;
+        }
+
+        long[] sortedLatencies() {
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+
+        int getCount() {
+            return count;
+        }
+
+        int getErrors() {
+            return errors;
+        }
+
+        long getBytes() {
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.awesomeapps.homeCloud.loadtest;
+
+import com.awesomeapps.homeCloud.loadtest.LoadGenerator.Samples;
+import com.awesomeapps.homeCloud.loadtest.LoadTestSettings.Operation;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Throughput and latency percentiles of a load test run, written as JSON so runs can be compared.
+ */
+public class LoadReport {
+    private static final ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    private final String timestamp = Instant.now().toString();
+    private final Map<String, Object> settings = new LinkedHashMap<>();
+    private final int measuredSeconds;
+    private final long requests;
+    private final long errors;
+    private final double throughput;
+    private final Map<String, OperationStats> operations = new LinkedHashMap<>();
+
+    LoadReport(LoadTestSettings settings, Map<Operation, Samples> samples, int measuredSeconds) {
+        this.settings.put("concurrency", settings.getConcurrency());
+        this.settings.put("warmupSeconds", settings.getWarmupSeconds());
+        this.settings.put("durationSeconds", settings.getDurationSeconds());
+        this.settings.put("volumes", settings.getVolumes());
+        this.settings.put("mix", settings.getMix());
+        this.settings.put("fileSizes", settings.getFileSizes());
+        this.measuredSeconds = measuredSeconds;
+
+        long totalRequests = 0;
+        long totalErrors = 0;
+        for (Map.Entry<Operation, Samples> entry : samples.entrySet()) {
+            OperationStats stats = new OperationStats(entry.getValue(), measuredSeconds);
+            operations.put(entry.getKey().name().toLowerCase(), stats);
+            totalRequests += stats.count + stats.errors;
+            totalErrors += stats.errors;
+        }
+        this.requests = totalRequests;
+        this.errors = totalErrors;
+        // Failed requests are not work done, they only count against the error rate
+        this.throughput = (double) (totalRequests - totalErrors) / measuredSeconds;
+    }
+
+    public String getTimestamp() {
+        return timestamp;
+    }
+
+    public Map<String, Object> getSettings() {
+        return settings;
+    }
+
+    public int getMeasuredSeconds() {
+        return measuredSeconds;
+    }
+
+    public long getRequests() {
+        return requests;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public double getThroughput() {
+        return throughput;
+    }
+
+    public double getErrorRate() {
+        return requests == 0 ? 0 : (double) errors / requests;
+    }
+
+    public Map<String, OperationStats> getOperations() {
+        return operations;
+    }
+
+    public void write(Path path) throws IOException {
+        if (path.getParent() != null) Files.createDirectories(path.getParent());
+        mapper.writeValue(path.toFile(), this);
+    }
+
+    /**
+     * Compare this run with the report at <b>baselinePath</b> and describe every operation whose throughput
+     * dropped, or whose p50 or p99 latency grew, by more than <b>maxRegression</b> (a fraction).
+     */
+    public List<String> regressionsAgainst(String baselinePath, double maxRegression) throws IOException {
+        JsonNode baseline = mapper.readTree(Paths.get(baselinePath).toFile()).path("operations");
+        List<String> regressions = new ArrayList<>();
+
+        for (Map.Entry<String, OperationStats> entry : operations.entrySet()) {
+            JsonNode before = baseline.path(entry.getKey());
+            if (before.isMissingNode()) continue;
+            OperationStats now = entry.getValue();
+
+            double throughputBefore = before.path("throughput").asDouble();
+            if (now.throughput < throughputBefore * (1 - maxRegression)) {
+                regressions.add(String.format("%s throughput %.1f/s, baseline %.1f/s",
+                        entry.getKey(), now.throughput, throughputBefore));
+            }
+            checkLatency(regressions, entry.getKey(), "p50Ms", now.p50Ms, before, maxRegression);
+            checkLatency(regressions, entry.getKey(), "p99Ms", now.p99Ms, before, maxRegression);
+        }
+        return regressions;
+    }
+
+    /**
+     * One line per operation for the console.
+     */
+    public String summary() {
+        StringBuilder summary = new StringBuilder(String.format(
+                "%d requests in %ds, %.1f req/s, %d errors%n", requests, measuredSeconds, throughput, errors));
+        operations.forEach((name, stats) -> summary.append(String.format(
+                "%-13s %8d ok  %9.1f req/s  p50 %8.2f ms  p99 %8.2f ms  p999 %8.2f ms  max %8.2f ms  %d errors%n",
+                name, stats.count, stats.throughput, stats.p50Ms, stats.p99Ms, stats.p999Ms, stats.maxMs,
+                stats.errors)));
+        return summary.toString();
+    }
+
+    private static void checkLatency(List<String> regressions, String operation, String field, double now,
+                                     JsonNode before, double maxRegression) {
+        double latencyBefore = before.path(field).asDouble();
+        if (latencyBefore > 0 && now > latencyBefore * (1 + maxRegression)) {
+            regressions.add(String.format("%s %s %.2f ms, baseline %.2f ms", operation, field, now, latencyBefore));
+        }
+    }
+
+    /**
+     * Throughput and latencies cover the successful requests, <b>count</b> of them, and <b>errors</b> counts the
+     * failed ones.
+     */
+    public static class OperationStats {
+        private final int count;
+        private final int errors;
+        private final double throughput;
+        private final double bytesPerSecond;
+        private final double meanMs;
+        private final double p50Ms;
+        private final double p90Ms;
+        private final double p99Ms;
+        private final double p999Ms;
+        private final double maxMs;
+
+        OperationStats(Samples samples, int measuredSeconds) {
+            long[] latencies = samples.sortedLatencies();
+            count = samples.getCount();
+            errors = samples.getErrors();
+            throughput = (double) count / measuredSeconds;
+            bytesPerSecond = (double) samples.getBytes() / measuredSeconds;
+
+            long sum = 0;
+            for (long latency : latencies) sum += latency;
+            meanMs = count == 0 ? 0 : toMillis(sum / count);
+            p50Ms = percentile(latencies, 0.50);
+            p90Ms = percentile(latencies, 0.90);
+            p99Ms = percentile(latencies, 0.99);
+            p999Ms = percentile(latencies, 0.999);
+            maxMs = count == 0 ? 0 : toMillis(latencies[count - 1]);
+        }
+
+        private static double percentile(long[] sorted, double quantile) {
+            if (sorted.length == 0) return 0;
+            int index = (int) Math.ceil(quantile * sorted.length) - 1;
+            return toMillis(sorted[Math.max(0, Math.min(index, sorted.length - 1))]);
+        }
+
+        private static double toMillis(long nanos) {
+            return nanos / 1_000_000.0;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public int getErrors() {
+            return errors;
+        }
+
+        public double getThroughput() {
+            return throughput;
+        }
+
+        public double getBytesPerSecond() {
+            return bytesPerSecond;
+        }
+
+        public double getMeanMs() {
+            return meanMs;
+        }
+
+        public double getP50Ms() {
+            return p50Ms;
+        }
+
+        public double getP90Ms() {
+            return p90Ms;
+        }
+
+        public double getP99Ms() {
+            return p99Ms;
+        }
+
+        public double getP999Ms() {
+            return p999Ms;
+        }
+
+        public double getMaxMs() {
+            return maxMs;
+        }
+    }
+}
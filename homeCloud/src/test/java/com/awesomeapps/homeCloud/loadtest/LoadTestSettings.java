@@ -0,0 +1,120 @@
+package com.awesomeapps.homeCloud.loadtest;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Settings of a load test run, read from <i>loadtest.*</i> system properties so they can be passed with
+ * <b>-D</b> on the Maven command line.
+ */
+public class LoadTestSettings {
+    private final int concurrency = Integer.getInteger("loadtest.concurrency", 16);
+    private final int warmupSeconds = Integer.getInteger("loadtest.warmupSeconds", 5);
+    private final int durationSeconds = Integer.getInteger("loadtest.durationSeconds", 30);
+    private final int volumes = Integer.getInteger("loadtest.volumes", 1);
+    private final int seedFilesPerSize = Integer.getInteger("loadtest.seedFilesPerSize", 4);
+    private final Duration requestTimeout =
+            Duration.ofSeconds(Integer.getInteger("loadtest.requestTimeoutSeconds", 30));
+    private final Map<Operation, Integer> mix =
+            parseMix(System.getProperty("loadtest.mix", "list:35,list_binary:15,download:30,upload:10,upload_stream:5,mkdir:5"));
+    private final Map<Integer, Integer> fileSizes =
+            parseFileSizes(System.getProperty("loadtest.fileSizes", "4KB:70,256KB:25,4MB:5"));
+    private final Path reportPath = Paths.get(System.getProperty("loadtest.report", "target/loadtest/report.json"));
+    private final String baselinePath = System.getProperty("loadtest.baseline");
+    private final double maxRegression = Double.parseDouble(System.getProperty("loadtest.maxRegression", "0.10"));
+    private final double maxErrorRate = Double.parseDouble(System.getProperty("loadtest.maxErrorRate", "0.01"));
+
+    public enum Operation {
+        LIST, LIST_BINARY, DOWNLOAD, UPLOAD, UPLOAD_STREAM, MKDIR
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public int getWarmupSeconds() {
+        return warmupSeconds;
+    }
+
+    public int getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    public int getVolumes() {
+        return volumes;
+    }
+
+    public int getSeedFilesPerSize() {
+        return seedFilesPerSize;
+    }
+
+    /**
+     * Longest wait for a whole response, a request that takes longer is counted as failed.
+     */
+    public Duration getRequestTimeout() {
+        return requestTimeout;
+    }
+
+    /**
+     * Relative weight of every operation in the workload.
+     */
+    public Map<Operation, Integer> getMix() {
+        return mix;
+    }
+
+    /**
+     * Relative weight of every file size, in bytes, used for uploads and seeded downloads.
+     */
+    public Map<Integer, Integer> getFileSizes() {
+        return fileSizes;
+    }
+
+    public Path getReportPath() {
+        return reportPath;
+    }
+
+    public String getBaselinePath() {
+        return baselinePath;
+    }
+
+    public double getMaxRegression() {
+        return maxRegression;
+    }
+
+    public double getMaxErrorRate() {
+        return maxErrorRate;
+    }
+
+    public int getLargestFileSize() {
+        return fileSizes.keySet().stream().mapToInt(Integer::intValue).max().orElse(0);
+    }
+
+    private static Map<Operation, Integer> parseMix(String value) {
+        Map<Operation, Integer> mix = new LinkedHashMap<>();
+        for (String part : value.split(",")) {
+            String[] weight = part.trim().split(":");
+            mix.put(Operation.valueOf(weight[0].trim().toUpperCase()), Integer.parseInt(weight[1].trim()));
+        }
+        return mix;
+    }
+
+    private static Map<Integer, Integer> parseFileSizes(String value) {
+        Map<Integer, Integer> sizes = new LinkedHashMap<>();
+        for (String part : value.split(",")) {
+            String[] weight = part.trim().split(":");
+            sizes.put(parseSize(weight[0].trim()), Integer.parseInt(weight[1].trim()));
+        }
+        return sizes;
+    }
+
+    private static int parseSize(String size) {
+        String upper = size.toUpperCase();
+        if (upper.endsWith("MB")) return Integer.parseInt(upper.substring(0, upper.length() - 2)) * 1024 * 1024;
+        if (upper.endsWith("KB")) return Integer.parseInt(upper.substring(0, upper.length() - 2)) * 1024;
+        if (upper.endsWith("B")) return Integer.parseInt(upper.substring(0, upper.length() - 1));
+        return Integer.parseInt(upper);
+    }
+}
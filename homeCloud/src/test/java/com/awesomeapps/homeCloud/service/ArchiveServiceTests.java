@@ -0,0 +1,250 @@
+package com.awesomeapps.homeCloud.service;
+
+import com.awesomeapps.homeCloud.models.ArchiveEntryDto;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ArchiveServiceTests {
+
+	@TempDir
+	Path root;
+
+	private StorageService storageService;
+	private ArchiveService archiveService;
+
+	@BeforeEach
+	void setUp() {
+		storageService = ServiceTestSupport.storage(root);
+		archiveService = new ArchiveService();
+		ReflectionTestUtils.setField(archiveService, "storageService", storageService);
+		ReflectionTestUtils.setField(archiveService, "cacheSize", 4);
+	}
+
+	@AfterEach
+	void tearDown() {
+		storageService.stopVolumes();
+	}
+
+	@Test
+	void storedAndDeflatedEntriesAreExtracted() throws Exception {
+		byte[] stored = randomBytes(10_000);
+		byte[] deflated = "compress me ".repeat(5_000).getBytes(StandardCharsets.UTF_8);
+		try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(root.resolve("a.zip")))) {
+			putStored(zip, "docs/stored.bin", stored);
+			zip.putNextEntry(new ZipEntry("docs/deflated.txt"));
+			zip.write(deflated);
+			zip.closeEntry();
+		}
+
+		List<ArchiveEntryDto> entries = list("a.zip");
+		assertEquals(2, entries.size());
+		assertEquals("docs/stored.bin", entries.get(0).getName());
+		assertEquals(stored.length, entries.get(0).getSize());
+		assertEquals(stored.length, entries.get(0).getCompressedSize());
+		assertEquals(deflated.length, entries.get(1).getSize());
+		assertNotNull(entries.get(1).getLastModified());
+
+		assertArrayEquals(stored, download("a.zip", "docs/stored.bin"));
+		assertArrayEquals(deflated, download("a.zip", "docs/deflated.txt"));
+	}
+
+	@Test
+	void zip64ArchivesAreListed() throws Exception {
+		// More entries than the classic end record can count makes ZipOutputStream write the ZIP64 records
+		writeZip64("many.zip");
+
+		List<ArchiveEntryDto> entries = list("many.zip");
+		assertEquals(70_000, entries.size());
+		assertEquals("e69999", entries.get(69_999).getName());
+		assertArrayEquals("69999".getBytes(StandardCharsets.UTF_8), download("many.zip", "e69999"));
+	}
+
+	@Test
+	void badZip64OffsetIsRejected() throws Exception {
+		byte[] bytes = Files.readAllBytes(writeZip64("good.zip"));
+		// The locator sits right before the 22 byte end record, its record offset 8 bytes in
+		int offsetField = bytes.length - 22 - 20 + 8;
+		for (long offset : new long[]{-1, bytes.length - 22 - 20 - 55, bytes.length}) {
+			ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).putLong(offsetField, offset);
+			Files.write(root.resolve("bad.zip"), bytes);
+
+			assertEquals(HttpStatus.BAD_REQUEST, archiveService.listEntries("bad.zip").getStatusCode());
+		}
+	}
+
+	@Test
+	void listedArchivesCanBeReplaced() throws Exception {
+		try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(root.resolve("new.zip")))) {
+			putStored(zip, "second.bin", new byte[]{2});
+		}
+		try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(root.resolve("a.zip")))) {
+			putStored(zip, "first.bin", new byte[]{1});
+		}
+		assertEquals("first.bin", list("a.zip").get(0).getName());
+
+		// Nothing of the archive is left open or mapped, which would keep it locked on Windows
+		Files.move(root.resolve("new.zip"), root.resolve("a.zip"), StandardCopyOption.REPLACE_EXISTING);
+		assertEquals("second.bin", list("a.zip").get(0).getName());
+		Files.delete(root.resolve("a.zip"));
+	}
+
+	@Test
+	void legacyNamesUseTheDosCodePage() throws Exception {
+		try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(root.resolve("dos.zip")),
+				Charset.forName("IBM437"))) {
+			zip.putNextEntry(new ZipEntry("café.txt"));
+			zip.write(1);
+			zip.closeEntry();
+		}
+
+		assertEquals("café.txt", list("dos.zip").get(0).getName());
+		assertArrayEquals(new byte[]{1}, download("dos.zip", "café.txt"));
+	}
+
+	@Test
+	void directoriesAreListedButNotDownloaded() throws Exception {
+		try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(root.resolve("dirs.zip")))) {
+			zip.putNextEntry(new ZipEntry("folder/"));
+			zip.closeEntry();
+		}
+
+		ArchiveEntryDto entry = list("dirs.zip").get(0);
+		assertEquals("folder/", entry.getName());
+		assertEquals("directory", entry.getType());
+		assertEquals(HttpStatus.BAD_REQUEST, archiveService.openEntry("dirs.zip", "folder/").getStatusCode());
+	}
+
+	@Test
+	void otherFilesAreRejected() throws Exception {
+		Files.write(root.resolve("notes.zip"), randomBytes(5_000));
+		Files.write(root.resolve("tiny.zip"), new byte[]{1, 2, 3});
+
+		assertEquals(HttpStatus.BAD_REQUEST, archiveService.listEntries("notes.zip").getStatusCode());
+		assertEquals(HttpStatus.BAD_REQUEST, archiveService.listEntries("tiny.zip").getStatusCode());
+		assertEquals(HttpStatus.NOT_FOUND, archiveService.listEntries("missing.zip").getStatusCode());
+	}
+
+	@Test
+	void damagedEntriesFailAtTheEnd() throws Exception {
+		byte[] stored = randomBytes(1_000);
+		try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(root.resolve("crc.zip")))) {
+			putStored(zip, "stored.bin", stored);
+			zip.putNextEntry(new ZipEntry("deflated.txt"));
+			zip.write("compress me ".repeat(100).getBytes(StandardCharsets.UTF_8));
+			zip.closeEntry();
+		}
+
+		byte[] bytes = Files.readAllBytes(root.resolve("crc.zip"));
+		ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		// Flip a byte of the stored data right after its local header and name
+		bytes[30 + "stored.bin".length() + 10] ^= 1;
+		// Damage the CRC-32 recorded in the central header of the deflated entry
+		int central = buffer.getInt(bytes.length - 22 + 16);
+		central += 46 + "stored.bin".length() + (buffer.getShort(central + 30) & 0xFFFF)
+				+ (buffer.getShort(central + 32) & 0xFFFF);
+		buffer.putInt(central + 16, buffer.getInt(central + 16) ^ 1);
+		Files.write(root.resolve("crc.zip"), bytes);
+
+		for (String name : List.of("stored.bin", "deflated.txt")) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			assertThrows(ZipException.class, () -> decode("crc.zip", name, out));
+			// The bytes that would complete the entry are withheld
+			assertTrue(out.size() < list("crc.zip").stream()
+					.filter(entry -> entry.getName().equals(name)).findFirst().orElseThrow().getSize());
+		}
+	}
+
+	private Path writeZip64(String name) throws Exception {
+		Path archive = root.resolve(name);
+		try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(archive))) {
+			for (int i = 0; i < 70_000; i++) {
+				zip.putNextEntry(new ZipEntry("e" + i));
+				zip.write(String.valueOf(i).getBytes(StandardCharsets.UTF_8));
+				zip.closeEntry();
+			}
+		}
+		return archive;
+	}
+
+	private static void putStored(ZipOutputStream zip, String name, byte[] data) throws Exception {
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		ZipEntry entry = new ZipEntry(name);
+		entry.setMethod(ZipEntry.STORED);
+		entry.setSize(data.length);
+		entry.setCompressedSize(data.length);
+		entry.setCrc(crc.getValue());
+		zip.putNextEntry(entry);
+		zip.write(data);
+		zip.closeEntry();
+	}
+
+	private List<ArchiveEntryDto> list(String filePath) throws Exception {
+		ResponseEntity<List<ArchiveEntryDto>> response = archiveService.listEntries(filePath);
+		assertEquals(HttpStatus.OK, response.getStatusCode());
+		return response.getBody();
+	}
+
+	private byte[] download(String filePath, String entryName) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		decode(filePath, entryName, out);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decode an entry into <b>out</b> the way the download servlet does, feeding the decoder small chunks read
+	 * where it asks for them.
+	 */
+	private void decode(String filePath, String entryName, ByteArrayOutputStream out) throws Exception {
+		ResponseEntity<ArchiveEntryDecoder> response = archiveService.openEntry(filePath, entryName);
+		assertEquals(HttpStatus.OK, response.getStatusCode());
+		byte[] output = new byte[1000];
+		try (ArchiveEntryDecoder decoder = response.getBody();
+			 FileChannel channel = FileChannel.open(decoder.getArchive())) {
+			int count;
+			while ((count = decoder.decode(output)) >= 0) {
+				if (count > 0) {
+					out.write(output, 0, count);
+				} else {
+					ByteBuffer chunk = ByteBuffer.allocate((int) Math.min(700, decoder.getInputRemaining()));
+					channel.read(chunk, decoder.getInputPosition());
+					decoder.feed(chunk.flip());
+				}
+			}
+			assertEquals(decoder.getSize(), out.size());
+		}
+	}
+
+	private static byte[] randomBytes(int length) {
+		byte[] bytes = new byte[length];
+		new Random(length).nextBytes(bytes);
+		return bytes;
+	}
+}
@@ -0,0 +1,175 @@
+package com.awesomeapps.homeCloud.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Drives the index through its public API and waits for the indexer thread before every check.
+ */
+class ContentIndexServiceTests {
+
+	@TempDir
+	Path root;
+
+	private StorageService storageService;
+	private ContentIndexService index;
+
+	@BeforeEach
+	void setUp() {
+		storageService = ServiceTestSupport.storage(root);
+	}
+
+	@AfterEach
+	void tearDown() throws InterruptedException {
+		if (index != null) index.stop();
+		storageService.stopVolumes();
+	}
+
+	@Test
+	void flushedSegmentsAreReadBack() throws IOException, InterruptedException {
+		index = open(8);
+		write("docs/a.txt", "The quick brown fox");
+		write("docs/b.txt", "The lazy dog, naïve café");
+		index.fileChanged("docs/a.txt");
+		index.fileChanged("docs/b.txt");
+		index.awaitIdle();
+		// Buffered documents are searchable before they are flushed
+		assertEquals(List.of("docs/a.txt"), index.search("quick fox", 10));
+		index.flushNow();
+		assertEquals(1, segmentFiles().size());
+
+		index = reopen(8);
+		assertEquals(List.of("docs/a.txt"), index.search("QUICK fox", 10));
+		assertEquals(List.of("docs/b.txt"), index.search("café naïve", 10));
+		assertEquals(List.of("docs/a.txt", "docs/b.txt"), index.search("the", 10));
+		assertEquals(List.of("docs/a.txt"), index.search("the", 1));
+		assertTrue(index.search("cat", 10).isEmpty());
+		// Nothing was indexed again on the restart
+		assertEquals(1, segmentFiles().size());
+	}
+
+	@Test
+	void mergeDropsRemovedDocuments() throws IOException, InterruptedException {
+		index = open(1);
+		write("a.txt", "alpha shared");
+		index.fileChanged("a.txt");
+		index.flushNow();
+		Files.delete(root.resolve("a.txt"));
+		index.fileRemoved("a.txt");
+		write("b.txt", "beta shared");
+		index.fileChanged("b.txt");
+		index.flushNow();
+
+		// Two segments are more than maxSegments, so they were merged into one
+		assertEquals(1, segmentFiles().size());
+		assertTrue(index.search("alpha", 10).isEmpty());
+		assertEquals(List.of("b.txt"), index.search("shared", 10));
+
+		index = reopen(1);
+		assertTrue(index.search("alpha", 10).isEmpty());
+		assertEquals(List.of("b.txt"), index.search("shared", 10));
+		assertEquals(1, docsLog().size());
+	}
+
+	@Test
+	void documentLogIsReplayed() throws IOException, InterruptedException {
+		index = open(8);
+		write("docs/a.txt", "moved words");
+		write("docs/b.txt", "deleted words");
+		write("c.txt", "renamed words");
+		index.fileChanged("docs/a.txt");
+		index.fileChanged("docs/b.txt");
+		index.fileChanged("c.txt");
+		index.flushNow();
+
+		// Moves and deletes only append to the log, the segment is left alone
+		Files.move(root.resolve("docs"), root.resolve("archive"));
+		index.directoryMoved("docs", "archive");
+		Files.delete(root.resolve("archive/b.txt"));
+		index.fileRemoved("archive/b.txt");
+		Files.move(root.resolve("c.txt"), root.resolve("d.txt"));
+		index.fileMoved("c.txt", "d.txt");
+		index.awaitIdle();
+		assertEquals(List.of("archive/a.txt", "d.txt"), index.search("words", 10));
+
+		index = reopen(8);
+		assertEquals(List.of("archive/a.txt", "d.txt"), index.search("words", 10));
+		// Had the log not been replayed, the start would have indexed the moved files into a new segment
+		assertEquals(1, segmentFiles().size());
+	}
+
+	@Test
+	void documentsWithoutTermsAreLogged() throws IOException, InterruptedException {
+		index = open(8);
+		write("empty.txt", "");
+		index.fileChanged("empty.txt");
+		index.flushNow();
+
+		assertTrue(segmentFiles().isEmpty());
+		assertEquals(1, docsLog().size());
+		assertTrue(docsLog().get(0).endsWith(" empty.txt"));
+
+		// After a restart the file is known and is not logged again
+		index = reopen(8);
+		assertEquals(1, docsLog().size());
+	}
+
+	@Test
+	void updatesAfterStopAreDropped() throws InterruptedException {
+		index = open(8);
+		index.stop();
+
+		assertDoesNotThrow(() -> index.fileChanged("late.txt"));
+		index = null;
+	}
+
+	/**
+	 * Start an index over the test root with the given settings, like the application does once it is ready.
+	 */
+	private ContentIndexService open(int maxSegments) throws InterruptedException {
+		ContentIndexService service = new ContentIndexService();
+		ReflectionTestUtils.setField(service, "storageService", storageService);
+		ReflectionTestUtils.setField(service, "indexEnabled", true);
+		ReflectionTestUtils.setField(service, "textExtensions", Set.of("txt"));
+		ReflectionTestUtils.setField(service, "maxFileSize", 1 << 20);
+		ReflectionTestUtils.setField(service, "flushDocs", 500);
+		ReflectionTestUtils.setField(service, "maxSegments", maxSegments);
+		service.start();
+		service.awaitIdle();
+		assertTrue(service.isEnabled());
+		return service;
+	}
+
+	private ContentIndexService reopen(int maxSegments) throws InterruptedException {
+		index.stop();
+		return open(maxSegments);
+	}
+
+	private void write(String path, String content) throws IOException {
+		Path file = root.resolve(path);
+		Files.createDirectories(file.getParent());
+		Files.writeString(file, content);
+	}
+
+	private List<Path> segmentFiles() throws IOException {
+		try (Stream<Path> files = Files.list(root.resolve(ContentIndexService.INDEX_FOLDER_NAME))) {
+			return files.filter(file -> file.getFileName().toString().endsWith(".idx")).toList();
+		}
+	}
+
+	private List<String> docsLog() throws IOException {
+		return Files.readAllLines(root.resolve(ContentIndexService.INDEX_FOLDER_NAME).resolve("docs.log"));
+	}
+}
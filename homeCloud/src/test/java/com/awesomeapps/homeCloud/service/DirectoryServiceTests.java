@@ -0,0 +1,105 @@
+package com.awesomeapps.homeCloud.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DirectoryServiceTests {
+
+	@TempDir
+	Path temp;
+
+	private Path v1;
+	private Path v2;
+	private StorageService storageService;
+	private DirectoryService directoryService;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		v1 = Files.createDirectory(temp.resolve("v1"));
+		v2 = Files.createDirectory(temp.resolve("v2"));
+		storageService = ServiceTestSupport.storage(v1, v2);
+		directoryService = new DirectoryService();
+		ReflectionTestUtils.setField(directoryService, "storageService", storageService);
+		ReflectionTestUtils.setField(directoryService, "integrityService", ServiceTestSupport.integrity(storageService));
+		// Never started, so every index update is a no-op
+		ReflectionTestUtils.setField(directoryService, "contentIndexService", new ContentIndexService());
+
+		// Folder a has a file on each volume
+		Files.createDirectories(v1.resolve("a"));
+		Files.writeString(v1.resolve("a/one.txt"), "one");
+		Files.createDirectories(v2.resolve("a"));
+		Files.writeString(v2.resolve("a/two.txt"), "two");
+	}
+
+	@AfterEach
+	void tearDown() {
+		storageService.stopVolumes();
+	}
+
+	@Test
+	void moveCoversEveryVolume() throws Exception {
+		Files.createDirectories(v1.resolve("dest"));
+
+		assertEquals(HttpStatus.OK, directoryService.moveDirectory("a", "dest").getStatusCode());
+
+		assertEquals(v1.resolve("dest/a/one.txt"), storageService.resolveExisting("dest/a/one.txt"));
+		assertEquals(v2.resolve("dest/a/two.txt"), storageService.resolveExisting("dest/a/two.txt"));
+		assertFalse(storageService.exists("a"));
+	}
+
+	@Test
+	void failedMoveLeavesEveryVolumeInPlace() throws Exception {
+		Files.createDirectories(v1.resolve("dest"));
+		// The destination folder cannot be created on the second volume
+		Files.writeString(v2.resolve("dest"), "not a folder");
+
+		assertEquals(HttpStatus.BAD_REQUEST, directoryService.moveDirectory("a", "dest").getStatusCode());
+
+		assertTrue(Files.isRegularFile(v1.resolve("a/one.txt")));
+		assertTrue(Files.isRegularFile(v2.resolve("a/two.txt")));
+		assertFalse(Files.exists(v1.resolve("dest/a")));
+	}
+
+	@Test
+	void renameCoversEveryVolume() throws Exception {
+		storageService.resolve("a/two.txt");
+
+		assertEquals(HttpStatus.OK, directoryService.renameDir("b", "a", "").getStatusCode());
+
+		assertEquals(v1.resolve("b/one.txt"), storageService.resolveExisting("b/one.txt"));
+		assertEquals(v2.resolve("b/two.txt"), storageService.resolveExisting("b/two.txt"));
+		assertFalse(storageService.exists("a"));
+	}
+
+	@Test
+	void renameOntoAnExistingNameIsRejected() throws Exception {
+		Files.createDirectories(v2.resolve("b"));
+
+		assertEquals(HttpStatus.BAD_REQUEST, directoryService.renameDir("b", "a", "").getStatusCode());
+
+		assertTrue(Files.isRegularFile(v1.resolve("a/one.txt")));
+		assertTrue(Files.isRegularFile(v2.resolve("a/two.txt")));
+	}
+
+	@Test
+	void copyReportsFilesThatCouldNotBeCopied() throws Exception {
+		Files.createDirectories(v1.resolve("dest/a"));
+		Files.writeString(v1.resolve("dest/a/two.txt"), "already here");
+
+		assertEquals(HttpStatus.BAD_REQUEST, directoryService.copyDirectory("a", "dest", "").getStatusCode());
+
+		assertEquals("already here", Files.readString(v1.resolve("dest/a/two.txt")));
+		assertEquals("one", Files.readString(storageService.resolveExisting("dest/a/one.txt")));
+	}
+}
@@ -0,0 +1,94 @@
+package com.awesomeapps.homeCloud.service;
+
+import com.awesomeapps.homeCloud.models.FileChecksum;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class IntegrityServiceTests {
+
+	@TempDir
+	Path root;
+
+	private StorageService storageService;
+	private IntegrityService integrityService;
+
+	@BeforeEach
+	void setUp() {
+		storageService = ServiceTestSupport.storage(root);
+		integrityService = ServiceTestSupport.integrity(storageService);
+	}
+
+	@AfterEach
+	void tearDown() {
+		storageService.stopVolumes();
+	}
+
+	@Test
+	void copyOntoItselfKeepsTheFile() throws Exception {
+		Path file = root.resolve("a.txt");
+		integrityService.copyWithChecksum(new ByteArrayInputStream("hello".getBytes(StandardCharsets.UTF_8)), file);
+
+		integrityService.copy(file, root.resolve("./a.txt"));
+
+		assertEquals("hello", Files.readString(file));
+		assertNotNull(integrityService.readChecksum(file));
+	}
+
+	@Test
+	void copyRecordsAVerifiedChecksum() throws Exception {
+		Path source = root.resolve("a.txt");
+		integrityService.copyWithChecksum(new ByteArrayInputStream("hello".getBytes(StandardCharsets.UTF_8)), source);
+
+		FileChecksum copied = integrityService.copy(source, root.resolve("b.txt"));
+
+		assertEquals("hello", Files.readString(root.resolve("b.txt")));
+		assertEquals(integrityService.readChecksum(source).getSha256(), copied.getSha256());
+	}
+
+	@Test
+	void failedCopyKeepsTheExistingTarget() throws Exception {
+		Path source = root.resolve("a.txt");
+		integrityService.copyWithChecksum(new ByteArrayInputStream("hello".getBytes(StandardCharsets.UTF_8)), source);
+		// Rot the source without touching its size or modification time, so its recorded checksum still applies
+		FileTime lastModified = Files.getLastModifiedTime(source);
+		Files.writeString(source, "jello");
+		Files.setLastModifiedTime(source, lastModified);
+		Path target = root.resolve("b.txt");
+		Files.writeString(target, "keep me");
+
+		assertThrows(IOException.class, () -> integrityService.copy(source, target));
+
+		assertEquals("keep me", Files.readString(target));
+		try (Stream<Path> files = Files.list(root)) {
+			assertEquals(List.of(IntegrityService.SIDECAR_FILE_NAME, "a.txt", "b.txt"),
+					files.map(file -> file.getFileName().toString()).sorted().toList());
+		}
+	}
+
+	@Test
+	void sidecarChangesAreSeen() throws Exception {
+		Path file = root.resolve("a.txt");
+		integrityService.copyWithChecksum(new ByteArrayInputStream("hello".getBytes(StandardCharsets.UTF_8)), file);
+		assertNotNull(integrityService.readChecksum(file));
+
+		Files.delete(root.resolve(IntegrityService.SIDECAR_FILE_NAME));
+
+		assertNull(integrityService.readChecksum(file));
+	}
+}
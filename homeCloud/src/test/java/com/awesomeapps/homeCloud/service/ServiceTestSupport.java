@@ -0,0 +1,36 @@
+package com.awesomeapps.homeCloud.service;
+
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+/**
+ * Builds services outside of a Spring context, with the settings of application.properties.
+ */
+final class ServiceTestSupport {
+
+    private ServiceTestSupport() {
+    }
+
+    static StorageService storage(Path... roots) {
+        StorageService storageService = new StorageService();
+        ReflectionTestUtils.setField(storageService, "rootFolders",
+                Arrays.stream(roots).map(Path::toString).collect(Collectors.joining(",")));
+        ReflectionTestUtils.setField(storageService, "placementPolicy", "round-robin");
+        ReflectionTestUtils.setField(storageService, "maxConcurrentIo", 8);
+        ReflectionTestUtils.setField(storageService, "ioWaitTimeout", Duration.ofSeconds(30));
+        storageService.initVolumes();
+        return storageService;
+    }
+
+    static IntegrityService integrity(StorageService storageService) {
+        IntegrityService integrityService = new IntegrityService();
+        ReflectionTestUtils.setField(integrityService, "storageService", storageService);
+        // The sidecar works on every file system the tests may run on
+        ReflectionTestUtils.setField(integrityService, "checksumStore", "sidecar");
+        return integrityService;
+    }
+}
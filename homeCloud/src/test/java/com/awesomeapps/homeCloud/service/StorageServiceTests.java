@@ -0,0 +1,168 @@
+package com.awesomeapps.homeCloud.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StorageServiceTests {
+
+	@TempDir
+	Path parent;
+
+	private Path first;
+	private Path second;
+	private StorageService storageService;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		first = Files.createDirectories(parent.resolve("v1"));
+		second = Files.createDirectories(parent.resolve("v2"));
+		storageService = ServiceTestSupport.storage(first, second);
+	}
+
+	@AfterEach
+	void tearDown() {
+		storageService.stopVolumes();
+	}
+
+	@Test
+	void parentReferencesCannotLeaveTheRoots() throws IOException {
+		Files.writeString(parent.resolve("secret.txt"), "secret");
+
+		assertNull(storageService.resolve("../secret.txt"));
+		assertNull(storageService.resolve("docs/../../secret.txt"));
+		assertNull(storageService.resolve("../v2/../secret.txt"));
+		assertTrue(storageService.resolveAll("../secret.txt").isEmpty());
+		assertThrows(AccessDeniedException.class, () -> storageService.resolveExisting("../secret.txt"));
+	}
+
+	@Test
+	void parentReferencesInsideTheRootAreAllowed() {
+		assertEquals(first.resolve("b.txt"), storageService.resolve("docs/../b.txt"));
+	}
+
+	@Test
+	void siblingWithTheSamePrefixIsOutside() throws IOException {
+		Path sibling = Files.createDirectories(parent.resolve("v1evil"));
+		Files.writeString(sibling.resolve("x.txt"), "x");
+
+		assertNull(storageService.resolve("../v1evil/x.txt"));
+	}
+
+	@Test
+	void metadataFilesAreOutside() throws IOException {
+		Files.createDirectories(first.resolve(".homeCloud.index"));
+		Files.writeString(first.resolve(".homeCloud.index/docs.log"), "A 0 0 a.txt");
+		Files.writeString(first.resolve(IntegrityService.SIDECAR_FILE_NAME), "a.txt=x");
+
+		assertNull(storageService.resolve(".homeCloud.index/docs.log"));
+		assertNull(storageService.resolve("docs/../" + IntegrityService.SIDECAR_FILE_NAME));
+		assertFalse(storageService.exists(".homeCloud.index"));
+		assertThrows(IOException.class, () -> storageService.resolveForWrite("", IntegrityService.SIDECAR_FILE_NAME, 1));
+	}
+
+	@Test
+	void absolutePathsStayInsideTheRoots() {
+		assertEquals(first.resolve("etc/passwd"), storageService.resolve("/etc/passwd"));
+		assertEquals(first.resolve("etc/passwd"), storageService.resolve("//etc//passwd/"));
+	}
+
+	@Test
+	void backslashesAreSeparators() throws IOException {
+		Files.createDirectories(second.resolve("docs"));
+		Files.writeString(second.resolve("docs/a.txt"), "a");
+
+		assertEquals(second.resolve("docs/a.txt"), storageService.resolve("docs\\a.txt"));
+		assertNull(storageService.resolve("..\\..\\secret.txt"));
+		assertEquals("docs/a.txt", StorageService.normalize("\\docs\\\\a.txt\\"));
+	}
+
+	@Test
+	void filesAreFoundOnEveryVolume() throws IOException {
+		Files.createDirectories(first.resolve("docs"));
+		Files.createDirectories(second.resolve("docs"));
+		Files.writeString(first.resolve("docs/a.txt"), "a");
+		Files.writeString(second.resolve("docs/b.txt"), "b");
+
+		assertEquals(first.resolve("docs/a.txt"), storageService.resolve("docs/a.txt"));
+		assertEquals(second.resolve("docs/b.txt"), storageService.resolve("docs/b.txt"));
+		assertEquals(List.of(first.resolve("docs"), second.resolve("docs")), storageService.resolveAll("docs"));
+		assertEquals("docs/b.txt", storageService.toVirtualPath(second.resolve("docs/b.txt")));
+	}
+
+	@Test
+	void missingFilesResolveToThePrimaryVolume() {
+		assertEquals(first.resolve("new.txt"), storageService.resolve("new.txt"));
+		assertThrows(NoSuchFileException.class, () -> storageService.resolveExisting("new.txt"));
+	}
+
+	@Test
+	void staleLocationsAreCorrected() throws IOException {
+		Files.writeString(first.resolve("a.txt"), "a");
+		// The index says the file is on the second volume, but it has been moved back since
+		storageService.record("a.txt", second.resolve("a.txt"));
+
+		assertEquals(first.resolve("a.txt"), storageService.resolve("a.txt"));
+
+		Files.delete(first.resolve("a.txt"));
+		Files.writeString(second.resolve("a.txt"), "a");
+		assertEquals(second.resolve("a.txt"), storageService.resolve("a.txt"));
+	}
+
+	@Test
+	void writesCannotLeaveTheRoots() {
+		assertThrows(IOException.class, () -> storageService.resolveForWrite("", "../../escape.txt", 1));
+		assertFalse(Files.exists(parent.getParent().resolve("escape.txt")));
+	}
+
+	@Test
+	void writesAreSpreadOverTheVolumes() throws IOException {
+		Path a = storageService.resolveForWrite("", "a.txt", 1);
+		Path b = storageService.resolveForWrite("", "b.txt", 1);
+
+		Files.writeString(a, "a");
+		Files.writeString(b, "b");
+
+		assertNotEquals(a.getParent(), b.getParent());
+		assertEquals(a, storageService.resolve("a.txt"));
+		assertEquals(b, storageService.resolve("b.txt"));
+	}
+
+	@Test
+	void busyVolumesFailFast() throws IOException {
+		Files.writeString(first.resolve("a.txt"), "a");
+		Files.writeString(second.resolve("b.txt"), "b");
+		// ServiceTestSupport allows 8 concurrent streams per volume
+		List<InputStream> open = new ArrayList<>();
+		for (int i = 0; i < 8; i++) open.add(storageService.openInputStream(first.resolve("a.txt")));
+
+		long start = System.nanoTime();
+		assertThrows(VolumeBusyException.class, () -> storageService.openInputStream(first.resolve("a.txt")));
+		assertThrows(VolumeBusyException.class, () -> storageService.openOutputStream(first.resolve("c.txt")));
+		assertTrue(System.nanoTime() - start < 1_000_000_000L);
+		assertFalse(Files.exists(first.resolve("c.txt")));
+
+		// The other volume is not affected, and closing a stream twice frees a single permit
+		try (InputStream in = storageService.openInputStream(second.resolve("b.txt"))) {
+			assertEquals('b', in.read());
+		}
+		open.get(0).close();
+		open.get(0).close();
+		open.set(0, storageService.openInputStream(first.resolve("a.txt")));
+		assertThrows(VolumeBusyException.class, () -> storageService.openInputStream(first.resolve("a.txt")));
+
+		for (InputStream in : open) in.close();
+	}
+}
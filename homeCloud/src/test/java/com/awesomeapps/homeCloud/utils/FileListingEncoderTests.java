@@ -0,0 +1,141 @@
+package com.awesomeapps.homeCloud.utils;
+
+import com.awesomeapps.homeCloud.models.FileDto;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileListingEncoderTests {
+
+	private static final List<String> NAMES = List.of("readme.md", "report-2024.txt", "report-2025.txt",
+			"naïve.txt", "naïveté.txt", "日本語.txt", "日本.txt", "😀a.txt", "😀b.txt", "😁.txt", "photos");
+
+	@Test
+	void roundTripWithoutPrefixCompression() {
+		List<FileDto> files = listing();
+		Decoded decoded = decode(FileListingEncoder.encode(new ArrayList<>(files), false));
+
+		assertEquals(0, decoded.flags);
+		assertEquals(files.size(), decoded.entries.size());
+		for (int i = 0; i < files.size(); i++) assertEntry(files.get(i), decoded.entries.get(i));
+	}
+
+	@Test
+	void roundTripWithPrefixCompression() {
+		List<FileDto> files = listing();
+		Decoded decoded = decode(FileListingEncoder.encode(new ArrayList<>(files), true));
+
+		files.sort(Comparator.comparing(FileDto::getName));
+		assertEquals(FileListingEncoder.FLAG_PREFIX_COMPRESSION, decoded.flags);
+		assertEquals(files.size(), decoded.entries.size());
+		for (int i = 0; i < files.size(); i++) assertEntry(files.get(i), decoded.entries.get(i));
+	}
+
+	@Test
+	void sharedPrefixIsCountedInUtf8Bytes() {
+		List<FileDto> files = new ArrayList<>(List.of(file("naïve.txt", 1), file("naïveté.txt", 2),
+				file("report-2024.txt", 3), file("report-2025.txt", 4), file("😀a.txt", 5), file("😁b.txt", 6)));
+		Decoded decoded = decode(FileListingEncoder.encode(files, true));
+
+		// "naïve" is five chars but six bytes
+		assertEquals(6, decoded.entries.get(1).shared);
+		assertEquals(10, decoded.entries.get(3).shared);
+		// The emojis share their first three bytes, but a prefix never ends inside a code point
+		assertEquals(0, decoded.entries.get(5).shared);
+	}
+
+	private static List<FileDto> listing() {
+		List<FileDto> files = new ArrayList<>();
+		long size = 0;
+		for (String name : NAMES) files.add(file(name, size += 1000));
+		files.get(files.size() - 1).setType("directory");
+		files.get(0).setCreationTimestamp(-86_400_000L); // before the epoch
+		return files;
+	}
+
+	private static FileDto file(String name, long size) {
+		FileDto file = new FileDto(name, "file", size * 1_000_003, null);
+		file.setCreationTimestamp(1_792_399_285_489L + size);
+		return file;
+	}
+
+	private static void assertEntry(FileDto expected, Entry actual) {
+		assertEquals(expected.getName(), actual.name);
+		assertEquals(expected.getType().equals("directory") ? 1 : 0, actual.type);
+		assertEquals(expected.getSize(), actual.size);
+		assertEquals(expected.getCreationTimestamp(), actual.timestamp);
+	}
+
+	/**
+	 * Decodes the listing the way a client without UTF-16 strings would, working on bytes only.
+	 */
+	private static Decoded decode(byte[] listing) {
+		ByteBuffer in = ByteBuffer.wrap(listing);
+		byte[] magic = new byte[4];
+		in.get(magic);
+		assertArrayEquals("HCLS".getBytes(StandardCharsets.US_ASCII), magic);
+		assertEquals(FileListingEncoder.VERSION, in.get());
+
+		Decoded decoded = new Decoded();
+		decoded.flags = in.get();
+		boolean prefixCompression = (decoded.flags & FileListingEncoder.FLAG_PREFIX_COMPRESSION) != 0;
+		long count = readVarint(in);
+
+		byte[] previous = new byte[0];
+		for (long i = 0; i < count; i++) {
+			Entry entry = new Entry();
+			entry.type = in.get();
+			entry.shared = prefixCompression ? (int) readVarint(in) : 0;
+			byte[] suffix = new byte[(int) readVarint(in)];
+			in.get(suffix);
+
+			ByteArrayOutputStream name = new ByteArrayOutputStream();
+			name.write(previous, 0, entry.shared);
+			name.writeBytes(suffix);
+			previous = name.toByteArray();
+			entry.name = new String(previous, StandardCharsets.UTF_8);
+
+			entry.size = readVarint(in);
+			long zigzag = readVarint(in);
+			entry.timestamp = (zigzag >>> 1) ^ -(zigzag & 1);
+			decoded.entries.add(entry);
+		}
+		assertFalse(in.hasRemaining());
+		return decoded;
+	}
+
+	private static long readVarint(ByteBuffer in) {
+		long value = 0;
+		for (int shift = 0; ; shift += 7) {
+			byte b = in.get();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+	}
+
+	private static class Decoded {
+		private int flags;
+		private final List<Entry> entries = new ArrayList<>();
+	}
+
+	private static class Entry {
+		private int type;
+		private int shared;
+		private String name;
+		private long size;
+		private long timestamp;
+
+		@Override
+		public String toString() {
+			return Arrays.asList(type, shared, name, size, timestamp).toString();
+		}
+	}
+}